@@ -28,11 +28,11 @@ import android.support.v4.app.FragmentActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.Toast;
 import com.espian.ticktock.oss.LoadHideHelper;
 import com.squareup.timessquare.CalendarPickerView;
 
-import java.text.DateFormat;
 import java.util.Calendar;
 import java.util.Date;
 
@@ -42,8 +42,16 @@ import java.util.Date;
  */
 public class AddEditActivity extends FragmentActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+	/**
+	 * Days before each occurrence to notify, in the order of the notify spinner's entries. -1 is never.
+	 */
+	private static final int[] NOTIFY_DAYS = new int[]{-1, 0, 1, 7};
+
 	private EditText mTitle;
 	private CalendarPickerView mDatePicker;
+	private Spinner mRecurrence;
+	private Spinner mNotify;
+	private long mLoadedDay = Long.MIN_VALUE;
 	private Calendar mMaxDate;
 	private boolean isEdit = false;
 	private String editId;
@@ -64,6 +72,9 @@ public class AddEditActivity extends FragmentActivity implements LoaderManager.L
 
 		mDatePicker = (CalendarPickerView) findViewById(R.id.calendarPicker);
 		mDatePicker.init(new Date(), new Date(), mMaxDate.getTime());
+		// Entries are in the same order as the Recurrence constants
+		mRecurrence = (Spinner) findViewById(R.id.recurrence);
+		mNotify = (Spinner) findViewById(R.id.notify);
 		//mTitle = (EditText) findViewById(R.id.labelEdit);
 
 		editId = getIntent().getStringExtra(BaseColumns._ID);
@@ -92,12 +103,22 @@ public class AddEditActivity extends FragmentActivity implements LoaderManager.L
 					Toast.makeText(this, R.string.no_empty_label, Toast.LENGTH_SHORT).show();
 					return true;
 				}
-				cvs.put("label", label);
-				cvs.put("date", DateFormat.getDateInstance(DateFormat.LONG).format(mDatePicker.getSelectedDate()));
+				Date selected = mDatePicker.getSelectedDate();
+				long selectedDay = EpochDays.fromDate(selected);
+				cvs.put(TickTockProvider.COLUMN_LABEL, label);
+				cvs.put(TickTockProvider.COLUMN_RECURRENCE, mRecurrence.getSelectedItemPosition());
+				int notifyDays = NOTIFY_DAYS[mNotify.getSelectedItemPosition()];
+				if (notifyDays < 0) cvs.putNull(TickTockProvider.COLUMN_NOTIFY);
+				else cvs.put(TickTockProvider.COLUMN_NOTIFY, String.valueOf(notifyDays));
+				// The picker shows the next occurrence, so leaving it alone keeps the original date
+				if (selectedDay != mLoadedDay) {
+					cvs.put(TickTockProvider.COLUMN_EPOCH_DAY, selectedDay);
+					cvs.put(TickTockProvider.COLUMN_EPOCH_MILLIS, selected.getTime());
+				}
 				if (isEdit) {
 
-					int updateResult = getContentResolver().update(TickTockProvider.countdownUri, cvs,
-							BaseColumns._ID + "=?", new String[]{editId + ""});
+					int updateResult = getContentResolver().update(TickTockProvider.countdownUri(Long.parseLong(editId)),
+							cvs, null, null);
 					if (updateResult == 1) {
 						setResult(RESULT_OK);
 						finish();
@@ -127,7 +148,7 @@ public class AddEditActivity extends FragmentActivity implements LoaderManager.L
 
 	@Override
 	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-		return new CursorLoader(this, TickTockProvider.countdownUri, null, BaseColumns._ID + "=?", new String[]{editId}, null);
+		return new CursorLoader(this, TickTockProvider.countdownUri(Long.parseLong(editId)), null, null, null, null);
 	}
 
 	@Override
@@ -135,9 +156,12 @@ public class AddEditActivity extends FragmentActivity implements LoaderManager.L
 
 		try {
 			data.moveToFirst();
-			Date editableDate = DateFormat.getDateInstance(DateFormat.LONG).parse(data.getString(2));
+			mLoadedDay = data.getLong(data.getColumnIndexOrThrow(TickTockProvider.COLUMN_NEXT_OCCURRENCE));
+			Date editableDate = EpochDays.toDate(mLoadedDay);
 			mDatePicker.init(editableDate, new Date(), mMaxDate.getTime());
-			mTitle.setText(data.getString(1));
+			mTitle.setText(data.getString(data.getColumnIndexOrThrow(TickTockProvider.COLUMN_LABEL)));
+			mRecurrence.setSelection(data.getInt(data.getColumnIndexOrThrow(TickTockProvider.COLUMN_RECURRENCE)));
+			mNotify.setSelection(notifyPosition(data.getString(data.getColumnIndexOrThrow(TickTockProvider.COLUMN_NOTIFY))));
 			mHelper.show();
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -146,6 +170,16 @@ public class AddEditActivity extends FragmentActivity implements LoaderManager.L
 
 	}
 
+	/**
+	 * @return the notify spinner entry for the stored value, or never if it isn't one of them
+	 */
+	private static int notifyPosition(String notify) {
+		for (int i = 1; notify != null && i < NOTIFY_DAYS.length; i++) {
+			if (String.valueOf(NOTIFY_DAYS[i]).equals(notify)) return i;
+		}
+		return 0;
+	}
+
 	@Override
 	public void onLoaderReset(Loader<Cursor> loader) {
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.BaseColumns;
+import android.support.v4.util.LruCache;
+
+/**
+ * A bounded cache of decoded countdown rows, keyed by id, so that reading a single countdown
+ * doesn't have to go back to SQLite. The provider invalidates entries as it writes them.
+ */
+class CountdownCache {
+
+	/**
+	 * The columns a cached row holds, in order
+	 */
+	static final String[] COLUMNS = new String[]{
+			BaseColumns._ID,
+			TickTockProvider.COLUMN_LABEL,
+			TickTockProvider.COLUMN_EPOCH_DAY,
+			TickTockProvider.COLUMN_EPOCH_MILLIS,
+			TickTockProvider.COLUMN_NOTIFY,
+			TickTockProvider.COLUMN_RECURRENCE,
+			TickTockProvider.COLUMN_NEXT_OCCURRENCE
+	};
+
+	/**
+	 * What a null projection returns: every stored column, plus days remaining
+	 */
+	static final String[] DEFAULT_PROJECTION = new String[]{
+			BaseColumns._ID,
+			TickTockProvider.COLUMN_LABEL,
+			TickTockProvider.COLUMN_EPOCH_DAY,
+			TickTockProvider.COLUMN_EPOCH_MILLIS,
+			TickTockProvider.COLUMN_NOTIFY,
+			TickTockProvider.COLUMN_RECURRENCE,
+			TickTockProvider.COLUMN_NEXT_OCCURRENCE,
+			TickTockProvider.COLUMN_DAYS_REMAINING
+	};
+
+	private final LruCache<Long, Object[]> mRows;
+	private long mGeneration;
+
+	CountdownCache(int maxRows) {
+		mRows = new LruCache<Long, Object[]>(maxRows);
+	}
+
+	/**
+	 * @return the cached row, or null if it isn't cached (which counts as a miss)
+	 */
+	Object[] get(long id) {
+		return mRows.get(id);
+	}
+
+	/**
+	 * @return a token to pass to {@link #put(long, Object[], long)} after reading a row from the
+	 * database, so a row read before a write can't be cached after it
+	 */
+	synchronized long generation() {
+		return mGeneration;
+	}
+
+	/**
+	 * Cache a row read from the database, unless something has been invalidated since the read began
+	 */
+	synchronized void put(long id, Object[] row, long generation) {
+		if (generation == mGeneration) mRows.put(id, row);
+	}
+
+	synchronized void invalidate(long id) {
+		mGeneration++;
+		mRows.remove(id);
+	}
+
+	synchronized void invalidateAll() {
+		mGeneration++;
+		mRows.evictAll();
+	}
+
+	int hitCount() {
+		return mRows.hitCount();
+	}
+
+	int missCount() {
+		return mRows.missCount();
+	}
+
+	/**
+	 * @return whether every column in the projection can be answered from a cached row
+	 */
+	static boolean canProject(String[] projection) {
+		if (projection == null) return true;
+		for (String column : projection) {
+			if (indexOf(column) == -1 && !TickTockProvider.COLUMN_DAYS_REMAINING.equals(column)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the row read from the cursor's current position, in {@link #COLUMNS} order
+	 */
+	static Object[] readRow(Cursor cursor) {
+		return new Object[]{
+				cursor.getLong(0),
+				cursor.getString(1),
+				cursor.getLong(2),
+				cursor.isNull(3) ? null : cursor.getLong(3),
+				cursor.getString(4),
+				cursor.getInt(5),
+				cursor.getLong(6)
+		};
+	}
+
+	/**
+	 * @param row   the row to return, or null for an empty cursor
+	 * @param today the epoch day to work out days remaining from
+	 */
+	static Cursor toCursor(String[] projection, Object[] row, long today) {
+		String[] columns = projection == null ? DEFAULT_PROJECTION : projection;
+		MatrixCursor cursor = new MatrixCursor(columns, 1);
+		if (row != null) {
+			Object[] values = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				if (TickTockProvider.COLUMN_DAYS_REMAINING.equals(columns[i])) {
+					values[i] = (Long) row[6] - today;
+				} else {
+					values[i] = row[indexOf(columns[i])];
+				}
+			}
+			cursor.addRow(values);
+		}
+		return cursor;
+	}
+
+	static int indexOf(String column) {
+		for (int i = 0; i < COLUMNS.length; i++) {
+			if (COLUMNS[i].equals(column)) return i;
+		}
+		return -1;
+	}
+
+}
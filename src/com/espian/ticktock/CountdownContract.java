@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import com.espian.ticktock.oss.RowBinder;
+
+/**
+ * The columns a countdown page is loaded with, in order, and how they're bound to the page. The
+ * pages ask the provider for just these, and each is read by its index with its own type.
+ */
+final class CountdownContract {
+
+	static final String[] PAGE_PROJECTION = new String[]{
+			BaseColumns._ID,
+			TickTockProvider.COLUMN_LABEL,
+			TickTockProvider.COLUMN_NEXT_OCCURRENCE
+	};
+
+	static final int INDEX_ID = 0;
+	static final int INDEX_LABEL = 1;
+	static final int INDEX_NEXT_OCCURRENCE = 2;
+
+	/**
+	 * Binds a page row into a {@link CountdownFragment}'s arguments, under the column names
+	 */
+	static final RowBinder PAGE_BINDER = new RowBinder() {
+		@Override
+		public void bind(Cursor row, Bundle args) {
+			args.putLong(BaseColumns._ID, row.getLong(INDEX_ID));
+			args.putString(TickTockProvider.COLUMN_LABEL, row.getString(INDEX_LABEL));
+			args.putLong(TickTockProvider.COLUMN_NEXT_OCCURRENCE, row.getLong(INDEX_NEXT_OCCURRENCE));
+		}
+
+		@Override
+		public boolean isSameRow(Cursor row, Bundle args) {
+			String label = args.getString(TickTockProvider.COLUMN_LABEL);
+			return args.getLong(BaseColumns._ID) == row.getLong(INDEX_ID)
+					&& args.getLong(TickTockProvider.COLUMN_NEXT_OCCURRENCE) == row.getLong(INDEX_NEXT_OCCURRENCE)
+					&& (label == null ? row.isNull(INDEX_LABEL) : label.equals(row.getString(INDEX_LABEL)));
+		}
+	};
+
+	private CountdownContract() {
+	}
+
+}
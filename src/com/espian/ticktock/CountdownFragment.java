@@ -17,22 +17,13 @@
 package com.espian.ticktock;
 
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
 import android.provider.BaseColumns;
 import android.support.v4.app.Fragment;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
-import android.widget.Toast;
-import com.espian.ticktock.oss.LoadHideHelper;
-import org.joda.time.DateTime;
-import org.joda.time.Days;
-
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.util.Date;
 
 /**
  * Author: Alex Curran
@@ -40,11 +31,34 @@ import java.util.Date;
  */
 public class CountdownFragment extends Fragment implements Titleable {
 
-	private String mIdAsString = -1 + "";
+	/**
+	 * How close, in days, a countdown has to be to show the hours, minutes and seconds left too
+	 */
+	private static final int LIVE_DAYS = 1;
+
 	private String mLabel;
+	private DayCount mDays;
+	private long mStartMillis;
 
-	private TextView mLabelView, mDaysToView, mDateView;
-	private LoadHideHelper mHelper;
+	/**
+	 * The view this page made, rather than {@link #getView()}, which is the frame the fragment
+	 * manager wraps it in
+	 */
+	private View mPageView;
+	private TextView mLabelView, mDaysToView, mDateView, mTimeToView;
+
+	private final LiveTicker.Listener mTicker = new LiveTicker.Listener() {
+		@Override
+		public void onTick(long nowMillis) {
+			long seconds = (mStartMillis - nowMillis) / DateUtils.SECOND_IN_MILLIS;
+			if (seconds > 0) {
+				mTimeToView.setText(DateUtils.formatElapsedTime(seconds));
+			} else {
+				// It's started; the day count catches up through the day changing
+				updateTicking();
+			}
+		}
+	};
 
 	public CountdownFragment() {
 
@@ -56,34 +70,18 @@ public class CountdownFragment extends Fragment implements Titleable {
 
 		if (getArguments() == null) throw new IllegalArgumentException("No args supplied for fragment");
 
-		try {
-
-			final Date date = DateFormat.getDateInstance(DateFormat.LONG).parse(getArguments().getString("date"));
-			mIdAsString = getArguments().getString(BaseColumns._ID);
-			mLabelView.setText(mLabel = getArguments().getString("label"));
-			mDateView.setText(DateFormat.getDateInstance(DateFormat.MEDIUM).format(date));
-			mHelper = new LoadHideHelper(this);
-
-			new Thread(new Runnable() {
-				@Override
-				public void run() {
-
-					// Requires an ugly fudge because, for some reason, the Days class accesses
-					// the disk through random access, which throws errors with StrictMode.
-					int days = Days.daysBetween(new DateTime(new Date()), new DateTime(date)).getDays();
-					Bundle b = new Bundle();
-					b.putString("result", String.valueOf(days + 1));
-					Message m = Message.obtain(asyncHandler);
-					m.setData(b);
-					asyncHandler.sendMessage(m);
-
-				}
-			}).start();
-
-		} catch (ParseException e) {
-			Toast.makeText(getActivity(), "Malformed date was stored", Toast.LENGTH_SHORT).show();
-			e.printStackTrace();
-		}
+		// Bound by CountdownContract.PAGE_BINDER. A repeating countdown shows its next
+		// occurrence rather than the day it started.
+		long epochDay = getArguments().getLong(TickTockProvider.COLUMN_NEXT_OCCURRENCE);
+		mLabelView.setText(mLabel = getArguments().getString(TickTockProvider.COLUMN_LABEL));
+		mDateView.setText(DateCodec.format(epochDay));
+
+		// Rather than the query's days remaining, which might be from before midnight. It's
+		// plain arithmetic on the cached day, so cheap enough to do here.
+		mDays = new DayCount(epochDay, DayMath.today());
+		mDaysToView.setText(String.valueOf(mDays.daysRemaining()));
+		mStartMillis = EpochDays.toDate(epochDay).getTime();
+		updateTicking();
 
 		//getActivity().getLoaderManager().initLoader(TickTockProvider.LOADER_SINGLE_ITEM, getArguments(), this);
 
@@ -91,30 +89,79 @@ public class CountdownFragment extends Fragment implements Titleable {
 
 	@Override
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-		View v = inflater.inflate(R.layout.countdown, null);
+		View v = mPageView = getActivity() instanceof CountdownViewPool.Owner
+				? ((CountdownViewPool.Owner) getActivity()).getCountdownViewPool().acquire()
+				: inflater.inflate(R.layout.countdown, null);
 		mLabelView = (TextView) v.findViewById(R.id.label);
 		mDateView = (TextView) v.findViewById(R.id.date);
 		mDaysToView = (TextView) v.findViewById(R.id.daysto);
+		mTimeToView = (TextView) v.findViewById(R.id.timeto);
 		return v;
 	}
 
+	@Override
+	public void onResume() {
+		super.onResume();
+		updateTicking();
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		// Still counts as resumed until this returns
+		LiveTicker.remove(mTicker);
+	}
+
+	@Override
+	public void onDestroyView() {
+		super.onDestroyView();
+		// Everything on it is set again when it's next bound. It's taken out of the fragment
+		// manager's wrapper first, or the next page would be wrapped around that too.
+		if (getActivity() instanceof CountdownViewPool.Owner) {
+			if (mPageView.getParent() instanceof ViewGroup) ((ViewGroup) mPageView.getParent()).removeView(mPageView);
+			((CountdownViewPool.Owner) getActivity()).getCountdownViewPool().release(mPageView);
+		}
+		mPageView = null;
+		mLabelView = mDaysToView = mDateView = mTimeToView = null;
+	}
+
+	@Override
+	public void setUserVisibleHint(boolean isVisibleToUser) {
+		super.setUserVisibleHint(isVisibleToUser);
+		updateTicking();
+	}
+
+	/**
+	 * Listens to the shared ticker only while this is the page being shown and it's close enough
+	 * to count down live. The pager keeps its neighbours resumed, but they aren't visible.
+	 */
+	private void updateTicking() {
+		if (mTimeToView == null) return;
+		long left = mStartMillis - System.currentTimeMillis();
+		boolean live = left > 0 && left <= LIVE_DAYS * EpochDays.MILLIS_PER_DAY;
+		mTimeToView.setVisibility(live ? View.VISIBLE : View.GONE);
+		if (live && isResumed() && getUserVisibleHint()) LiveTicker.add(mTicker);
+		else LiveTicker.remove(mTicker);
+	}
+
 	@Override
 	public String getTitle() {
-		if (mLabel == null || mLabel.isEmpty()) return getArguments().getString(BaseColumns._ID);
+		if (mLabel == null || mLabel.isEmpty()) return String.valueOf(getCountdownId());
 		return mLabel.toUpperCase();
 	}
 
-	public String getCountdownId() {
-		return mIdAsString;
+	/**
+	 * Counts the days remaining from the given day, for when the day has changed while the page
+	 * is alive. Does nothing if it was already counting from that day.
+	 */
+	void countFrom(long today) {
+		if (mDays == null || !mDays.countFrom(today)) return;
+		if (mDaysToView != null) mDaysToView.setText(String.valueOf(mDays.daysRemaining()));
+		updateTicking();
 	}
 
-	final Handler asyncHandler = new Handler() {
-
-		@Override
-		public void handleMessage(Message msg) {
-			mDaysToView.setText(msg.getData().getString("result"));
-			mHelper.show();
-		}
-	};
+	public long getCountdownId() {
+		return getArguments().getLong(BaseColumns._ID);
+	}
 
 }
@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.app.LoaderManager;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Loader;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the countdowns a page at a time, and only keeps the pages around the current one loaded,
+ * rather than the whole table in one cursor.
+ * <p/>
+ * The pages split the table into key ranges, (previous page's last key, this page's last key], so
+ * a page that grows or shrinks after a write never pushes rows into, or out of, its neighbours.
+ * Most are closed: their range was cut at a page's worth of rows, and they load all of it. An open
+ * page's range may hold any number of rows, so it only ever loads a page's worth, from whichever
+ * end the user is coming from, and is split in two once they need the rows past that. The last
+ * page is always open, and jumping to a row far from the loaded ones opens a page at its key.
+ * <p/>
+ * Pages more than {@link #WINDOW_RADIUS} away from the current one have their loaders destroyed,
+ * keeping only their key range, and are loaded again from it when the user comes back. The
+ * cursor handed to the listener covers just the loaded pages, so positions are relative to the
+ * first of those and move when pages are dropped or loaded in front of the current one.
+ */
+class CountdownPages implements LoaderManager.LoaderCallbacks<Cursor> {
+
+	static final int DEFAULT_PAGE_SIZE = 50;
+
+	/**
+	 * How many pages either side of the current one are kept loaded
+	 */
+	private static final int WINDOW_RADIUS = 2;
+
+	/**
+	 * Loader ids from here up are used for pages, a new one each time a page is loaded
+	 */
+	private static final int LOADER_FIRST_PAGE = 16;
+
+	private static final String STATE_BOUNDARIES = "page_boundaries";
+	private static final String STATE_LOADERS = "page_loaders";
+	private static final String STATE_FLAGS = "page_flags";
+	private static final String STATE_CURRENT = "current_page";
+	private static final String STATE_NEXT_LOADER = "next_page_loader";
+
+	private static final int FLAG_OPEN = 1;
+	private static final int FLAG_FROM_END = 2;
+
+	interface Listener {
+
+		/**
+		 * Called with the loaded pages around the current one, in order, as a single cursor
+		 *
+		 * @param shift how far the rows that were already published have moved, from pages
+		 *              loaded or dropped in front of them
+		 */
+		void onPagesChanged(Cursor pages, int shift);
+
+	}
+
+	/**
+	 * One page's loader and rows. Its key range comes from its place in the list of pages.
+	 */
+	private static final class Page {
+		/**
+		 * The range may hold more than a page's worth of rows, so only that many are loaded
+		 */
+		boolean open;
+		/**
+		 * The open page is loading the last rows of its range, in descending order, to find
+		 * where to split it. It's never published like that.
+		 */
+		boolean fromEnd;
+		/**
+		 * The loader currently loading or holding the page, or -1 if it isn't loaded
+		 */
+		int loaderId = -1;
+		Cursor rows;
+		/**
+		 * Where its first row is in the cursor last given to the listener, or -1 if it wasn't in it
+		 */
+		int offset = -1;
+
+		Page(boolean open) {
+			this.open = open;
+		}
+	}
+
+	private final Context mContext;
+	private final LoaderManager mLoaderManager;
+	private final Listener mListener;
+	private final int mPageSize;
+	private final String[] mProjection;
+
+	/**
+	 * The last (next occurrence, id) key of every page but the last. There's always one more page than this.
+	 */
+	private final List<long[]> mBoundaries = new ArrayList<long[]>();
+	private final List<Page> mPages = new ArrayList<Page>();
+	/**
+	 * Loaders no page uses any more, destroyed once the next publish has let go of their cursors
+	 */
+	private final List<Integer> mReleased = new ArrayList<Integer>();
+	private Page mCurrent;
+	private int mNextLoaderId = LOADER_FIRST_PAGE;
+
+	CountdownPages(Context context, LoaderManager loaderManager, String[] projection, int pageSize, Listener listener) {
+		mContext = context;
+		mLoaderManager = loaderManager;
+		mProjection = projection;
+		mPageSize = pageSize;
+		mListener = listener;
+	}
+
+	/**
+	 * Start loading the pages, reconnecting to those from before a configuration change if there
+	 * were any.
+	 *
+	 * @param savedInstanceState the state passed to {@link #onSaveInstanceState(android.os.Bundle)}, or null
+	 */
+	void start(Bundle savedInstanceState) {
+		long[] boundaries = savedInstanceState == null ? null : savedInstanceState.getLongArray(STATE_BOUNDARIES);
+		int[] loaders = savedInstanceState == null ? null : savedInstanceState.getIntArray(STATE_LOADERS);
+		int[] flags = savedInstanceState == null ? null : savedInstanceState.getIntArray(STATE_FLAGS);
+		if (boundaries == null || loaders == null || flags == null) {
+			mPages.add(mCurrent = new Page(true));
+			load(mCurrent);
+			return;
+		}
+
+		for (int i = 0; i < boundaries.length; i += 2) {
+			mBoundaries.add(new long[]{boundaries[i], boundaries[i + 1]});
+		}
+		mNextLoaderId = savedInstanceState.getInt(STATE_NEXT_LOADER, LOADER_FIRST_PAGE);
+		for (int i = 0; i < loaders.length; i++) {
+			Page page = new Page((flags[i] & FLAG_OPEN) != 0);
+			page.fromEnd = (flags[i] & FLAG_FROM_END) != 0;
+			mPages.add(page);
+			if (loaders[i] != -1) {
+				page.loaderId = loaders[i];
+				mLoaderManager.initLoader(loaders[i], null, this);
+			}
+		}
+		mCurrent = mPages.get(savedInstanceState.getInt(STATE_CURRENT, 0));
+		if (mCurrent.loaderId == -1 || mCurrent.fromEnd) loadFromStart(mCurrent);
+	}
+
+	void onSaveInstanceState(Bundle outState) {
+		long[] boundaries = new long[mBoundaries.size() * 2];
+		for (int i = 0; i < mBoundaries.size(); i++) {
+			boundaries[i * 2] = mBoundaries.get(i)[0];
+			boundaries[i * 2 + 1] = mBoundaries.get(i)[1];
+		}
+		int[] loaders = new int[mPages.size()];
+		int[] flags = new int[mPages.size()];
+		for (int i = 0; i < loaders.length; i++) {
+			Page page = mPages.get(i);
+			loaders[i] = page.loaderId;
+			flags[i] = (page.open ? FLAG_OPEN : 0) | (page.fromEnd ? FLAG_FROM_END : 0);
+		}
+		outState.putLongArray(STATE_BOUNDARIES, boundaries);
+		outState.putIntArray(STATE_LOADERS, loaders);
+		outState.putIntArray(STATE_FLAGS, flags);
+		outState.putInt(STATE_CURRENT, mPages.indexOf(mCurrent));
+		outState.putInt(STATE_NEXT_LOADER, mNextLoaderId);
+	}
+
+	/**
+	 * Tell the pages which position is being shown, so that the pages either side of it can be
+	 * fetched before the user runs out of loaded ones.
+	 *
+	 * @param position the pager's current position
+	 */
+	void onPositionChanged(int position) {
+		Page current = pageAt(position);
+		if (current == null) return;
+		mCurrent = current;
+
+		int index = mPages.indexOf(current);
+		if (index > 0) loadBefore(index);
+		if (isComplete(current)) {
+			if (index + 1 < mPages.size()) loadFromStart(mPages.get(index + 1));
+		} else if (position >= current.offset + current.rows.getCount() - mPageSize / 2) {
+			splitAfterLoaded(index);
+		}
+	}
+
+	/**
+	 * Make sure the row with the given key gets loaded, moving the window of loaded pages to the
+	 * page holding it. If that's an open page that hasn't loaded it, a new one is opened at the
+	 * key, so only a page's worth of rows from there on is loaded, however far away it is.
+	 */
+	void jumpTo(long nextOccurrence, long id) {
+		long[] key = new long[]{nextOccurrence, id};
+		int index = 0;
+		while (index < mBoundaries.size() && compare(key, mBoundaries.get(index)) > 0) {
+			index++;
+		}
+		Page page = mPages.get(index);
+		if (page.open && !holds(page, key)) {
+			// The rows before the key stay in the old page, to be loaded from whichever end the
+			// user comes to them from. Ids are whole numbers, so nothing falls between the two keys.
+			release(page);
+			mBoundaries.add(index, new long[]{key[0], key[1] - 1});
+			page = new Page(true);
+			mPages.add(++index, page);
+		}
+		mCurrent = page;
+		if (page.loaderId == -1 || page.fromEnd) loadFromStart(page);
+		else publish();
+	}
+
+	/**
+	 * Load every loaded page again, keeping the same ranges
+	 */
+	void reload() {
+		for (Page page : mPages) {
+			if (page.loaderId != -1) mLoaderManager.restartLoader(page.loaderId, null, this);
+		}
+	}
+
+	/**
+	 * @return true if the page is loaded and has every row in its range
+	 */
+	private boolean isComplete(Page page) {
+		return page.rows != null && !page.fromEnd && (!page.open || page.rows.getCount() < mPageSize);
+	}
+
+	/**
+	 * @return true if the page has loaded from its start, and loaded the row with the key if
+	 * its range holds it
+	 */
+	private boolean holds(Page page, long[] key) {
+		if (page.rows == null || page.fromEnd) return false;
+		if (page.rows.getCount() < mPageSize) return true;
+		page.rows.moveToLast();
+		return compare(key, keyOf(page.rows)) <= 0;
+	}
+
+	/**
+	 * Load the page before the one at the index, so that its rows run on into the current
+	 * page's. For an open page, that means the end of its range.
+	 */
+	private void loadBefore(int index) {
+		Page previous = mPages.get(index - 1);
+		if (previous.loaderId != -1 && (previous.fromEnd || isComplete(previous))) return;
+		// An open page loaded from its start doesn't reach this one
+		release(previous);
+		previous.fromEnd = previous.open;
+		load(previous);
+	}
+
+	private void loadFromStart(Page page) {
+		if (page.loaderId != -1 && !page.fromEnd) return;
+		release(page);
+		page.fromEnd = false;
+		load(page);
+	}
+
+	/**
+	 * Close off the open page at the index at its last loaded key, and open a new page after it
+	 * for the rest of its range
+	 */
+	private void splitAfterLoaded(int index) {
+		Page page = mPages.get(index);
+		page.rows.moveToLast();
+		mBoundaries.add(index, keyOf(page.rows));
+		page.open = false;
+		// Reload it as a fixed range, so rows inserted into it stay on it
+		mLoaderManager.restartLoader(page.loaderId, null, this);
+		Page next = new Page(true);
+		mPages.add(index + 1, next);
+		load(next);
+	}
+
+	/**
+	 * The last rows of an open page have loaded: close off a page at the first of them, which
+	 * is then loaded in order, and leave what's before it in an open page of its own
+	 */
+	private void splitFromEnd(Page page, Cursor lastRows) {
+		int index = mPages.indexOf(page);
+		if (lastRows.getCount() >= mPageSize) {
+			lastRows.moveToLast();
+			long[] first = keyOf(lastRows);
+			mBoundaries.add(index, new long[]{first[0], first[1] - 1});
+			mPages.add(index, new Page(true));
+		}
+		// Otherwise that was every row in its range
+		page.open = false;
+		release(page);
+		page.fromEnd = false;
+		load(page);
+	}
+
+	private void load(Page page) {
+		page.loaderId = mNextLoaderId++;
+		mLoaderManager.initLoader(page.loaderId, null, this);
+	}
+
+	/**
+	 * Forget the page's rows. Its loader is destroyed after the next publish.
+	 */
+	private void release(Page page) {
+		if (page.loaderId == -1) return;
+		mReleased.add(page.loaderId);
+		page.loaderId = -1;
+		page.rows = null;
+		page.offset = -1;
+	}
+
+	private Page pageWithLoader(int loaderId) {
+		for (Page page : mPages) {
+			if (page.loaderId == loaderId) return page;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the published page the position falls on, or null if there isn't one
+	 */
+	private Page pageAt(int position) {
+		for (Page page : mPages) {
+			if (page.offset != -1 && position >= page.offset && position < page.offset + page.rows.getCount()) {
+				return page;
+			}
+		}
+		return null;
+	}
+
+	private static long[] keyOf(Cursor cursor) {
+		return new long[]{
+				cursor.getLong(cursor.getColumnIndexOrThrow(TickTockProvider.COLUMN_NEXT_OCCURRENCE)),
+				cursor.getLong(cursor.getColumnIndexOrThrow(BaseColumns._ID))
+		};
+	}
+
+	private static int compare(long[] key, long[] other) {
+		if (key[0] != other[0]) return key[0] < other[0] ? -1 : 1;
+		if (key[1] != other[1]) return key[1] < other[1] ? -1 : 1;
+		return 0;
+	}
+
+	private Uri pageUri(int index) {
+		Page page = mPages.get(index);
+		Uri.Builder builder = TickTockProvider.countdownUri.buildUpon()
+				.appendQueryParameter(TickTockProvider.PARAM_TODAY, String.valueOf(DayMath.today()));
+		if (index > 0) {
+			long[] after = mBoundaries.get(index - 1);
+			builder.appendQueryParameter(TickTockProvider.PARAM_AFTER_DAY, String.valueOf(after[0]))
+					.appendQueryParameter(TickTockProvider.PARAM_AFTER_ID, String.valueOf(after[1]));
+		}
+		if (index < mBoundaries.size()) {
+			long[] through = mBoundaries.get(index);
+			builder.appendQueryParameter(TickTockProvider.PARAM_THROUGH_DAY, String.valueOf(through[0]))
+					.appendQueryParameter(TickTockProvider.PARAM_THROUGH_ID, String.valueOf(through[1]));
+		}
+		if (page.open) builder.appendQueryParameter(TickTockProvider.PARAM_LIMIT, String.valueOf(mPageSize));
+		if (page.fromEnd) builder.appendQueryParameter(TickTockProvider.PARAM_FROM_END, "true");
+		return builder.build();
+	}
+
+	@Override
+	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+		Page page = pageWithLoader(id);
+		return new CursorLoader(mContext, pageUri(mPages.indexOf(page)), mProjection, null, null,
+				TickTockProvider.KEY_ORDER);
+	}
+
+	@Override
+	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+		Page page = pageWithLoader(loader.getId());
+		if (page == null) return;
+		if (page.fromEnd) {
+			splitFromEnd(page, data);
+			return;
+		}
+		page.rows = data;
+		publish();
+	}
+
+	@Override
+	public void onLoaderReset(Loader<Cursor> loader) {
+		Page page = pageWithLoader(loader.getId());
+		// A restarted loader's old instance is reset once the new one has delivered; that's not this page going
+		if (page != null && page.rows != null && mLoaderManager.getLoader(loader.getId()) == loader) {
+			page.rows = null;
+			publish();
+		}
+	}
+
+	/**
+	 * Drops the pages that are too far from the current one, then gives the listener the run of
+	 * loaded pages around it. Nothing is published until the current page has loaded.
+	 */
+	private void publish() {
+		if (mCurrent.rows == null) return;
+		int current = mPages.indexOf(mCurrent);
+
+		for (int i = 0; i < mPages.size(); i++) {
+			if (Math.abs(i - current) > WINDOW_RADIUS) release(mPages.get(i));
+		}
+
+		// Only pages with every row in their range join up with the next one
+		int first = current;
+		while (first > 0 && isComplete(mPages.get(first - 1))) {
+			first--;
+		}
+		int last = current;
+		while (last + 1 < mPages.size() && isComplete(mPages.get(last)) && mPages.get(last + 1).rows != null
+				&& !mPages.get(last + 1).fromEnd) {
+			last++;
+		}
+		Cursor[] loaded = new Cursor[last - first + 1];
+		int offset = 0;
+		Integer shift = null;
+		for (int i = 0; i < mPages.size(); i++) {
+			Page page = mPages.get(i);
+			if (i < first || i > last) {
+				page.offset = -1;
+			} else {
+				if (shift == null && page.offset != -1) shift = offset - page.offset;
+				page.offset = offset;
+				offset += page.rows.getCount();
+				loaded[i - first] = page.rows;
+			}
+		}
+		mListener.onPagesChanged(loaded.length == 1 ? loaded[0] : new MergeCursor(loaded), shift == null ? 0 : shift);
+
+		// Only now that the listener has let go of their cursors can the loaders close them
+		for (int loaderId : mReleased) {
+			mLoaderManager.destroyLoader(loaderId);
+		}
+		mReleased.clear();
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.provider.BaseColumns;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled statements for the provider's hot writes: inserting a countdown, and updating or
+ * deleting one by id. Each distinct set of columns is compiled once and then re-bound, instead
+ * of SQLiteDatabase's convenience methods compiling the SQL again on every call.
+ * <p/>
+ * A statement can only be bound by one caller at a time, so binding and running one is
+ * synchronized. Each write first takes the database's write connection by beginning a (possibly
+ * nested) transaction, and only then the lock: whoever holds the lock already has the connection,
+ * so a thread part way through its own transaction never waits on the lock while the holder waits
+ * on it for the connection.
+ */
+class CountdownStatements {
+
+	private static final String TAG = "CountdownStatements";
+	private static final int MAX_STATEMENTS = 16;
+
+	private final SQLiteDatabase mDatabase;
+	private final LruCache<String, SQLiteStatement> mStatements = new LruCache<String, SQLiteStatement>(MAX_STATEMENTS) {
+		@Override
+		protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+			oldValue.close();
+		}
+	};
+	private final SQLiteTransactionListener mCommitListener;
+	private SQLiteStatement mDeleteById;
+
+	/**
+	 * @param commitListener told when a write that wasn't already in a transaction commits
+	 */
+	CountdownStatements(SQLiteDatabase database, SQLiteTransactionListener commitListener) {
+		mDatabase = database;
+		mCommitListener = commitListener;
+	}
+
+	/**
+	 * @return the new row's id, or -1 if the insert failed
+	 */
+	long insert(ContentValues values) {
+		beginWrite();
+		try {
+			long id = insertLocked(values);
+			mDatabase.setTransactionSuccessful();
+			return id;
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	/**
+	 * @return the number of rows updated, zero or one
+	 */
+	int updateById(long id, ContentValues values) {
+		if (values == null || values.size() == 0) throw new IllegalArgumentException("Empty values");
+		beginWrite();
+		try {
+			int updated = updateByIdLocked(id, values);
+			mDatabase.setTransactionSuccessful();
+			return updated;
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	/**
+	 * @return the number of rows deleted, zero or one
+	 */
+	int deleteById(long id) {
+		beginWrite();
+		try {
+			int deleted = deleteByIdLocked(id);
+			mDatabase.setTransactionSuccessful();
+			return deleted;
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
+	/**
+	 * Blocks, without holding the lock, until this thread has the write connection
+	 */
+	private void beginWrite() {
+		mDatabase.beginTransactionWithListener(mDatabase.inTransaction() ? null : mCommitListener);
+	}
+
+	private synchronized long insertLocked(ContentValues values) {
+		if (values == null || values.size() == 0) {
+			return mDatabase.insert(TickTockProvider.TABLE_COUNTDOWNS, TickTockProvider.COLUMN_LABEL, values);
+		}
+		List<String> columns = sortedColumns(values);
+		String key = "insert:" + columns;
+		SQLiteStatement statement = mStatements.get(key);
+		if (statement == null) {
+			StringBuilder sql = new StringBuilder("INSERT INTO ").append(TickTockProvider.TABLE_COUNTDOWNS).append(" (");
+			StringBuilder params = new StringBuilder();
+			for (int i = 0; i < columns.size(); i++) {
+				if (i > 0) {
+					sql.append(", ");
+					params.append(", ");
+				}
+				sql.append(columns.get(i));
+				params.append('?');
+			}
+			sql.append(") VALUES (").append(params).append(");");
+			statement = compile(key, sql.toString());
+		}
+		bind(statement, columns, values);
+		try {
+			return statement.executeInsert();
+		} catch (SQLException e) {
+			// Same contract as SQLiteDatabase.insert
+			Log.e(TAG, "Error inserting " + values, e);
+			return -1;
+		}
+	}
+
+	private synchronized int updateByIdLocked(long id, ContentValues values) {
+		List<String> columns = sortedColumns(values);
+		String key = "update:" + columns;
+		SQLiteStatement statement = mStatements.get(key);
+		if (statement == null) {
+			StringBuilder sql = new StringBuilder("UPDATE ").append(TickTockProvider.TABLE_COUNTDOWNS).append(" SET ");
+			for (int i = 0; i < columns.size(); i++) {
+				if (i > 0) sql.append(", ");
+				sql.append(columns.get(i)).append("=?");
+			}
+			sql.append(" WHERE ").append(BaseColumns._ID).append("=?;");
+			statement = compile(key, sql.toString());
+		}
+		bind(statement, columns, values);
+		statement.bindLong(columns.size() + 1, id);
+		return statement.executeUpdateDelete();
+	}
+
+	private synchronized int deleteByIdLocked(long id) {
+		if (mDeleteById == null) {
+			mDeleteById = mDatabase.compileStatement("DELETE FROM " + TickTockProvider.TABLE_COUNTDOWNS +
+					" WHERE " + BaseColumns._ID + "=?;");
+		}
+		mDeleteById.bindLong(1, id);
+		return mDeleteById.executeUpdateDelete();
+	}
+
+	private SQLiteStatement compile(String key, String sql) {
+		SQLiteStatement statement = mDatabase.compileStatement(sql);
+		mStatements.put(key, statement);
+		return statement;
+	}
+
+	private static List<String> sortedColumns(ContentValues values) {
+		List<String> columns = new ArrayList<String>(values.size());
+		for (Map.Entry<String, Object> entry : values.valueSet()) {
+			columns.add(entry.getKey());
+		}
+		Collections.sort(columns);
+		return columns;
+	}
+
+	private static void bind(SQLiteStatement statement, List<String> columns, ContentValues values) {
+		statement.clearBindings();
+		for (int i = 0; i < columns.size(); i++) {
+			DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns.get(i)));
+		}
+	}
+
+}
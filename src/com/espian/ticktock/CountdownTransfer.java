@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * The export format: a header line naming the columns, then one line per countdown with its
+ * values separated by tabs. Tabs, newlines and backslashes in values are escaped, and a null
+ * is written as \N. Rows are written and read one at a time, so neither side ever holds more
+ * than a line.
+ */
+class CountdownTransfer {
+
+	static final String MIME_TYPE = "text/tab-separated-values";
+
+	/**
+	 * The columns exported, in order. Ids aren't, as imported countdowns get new ones, and neither
+	 * are next occurrences, which are worked out again on import.
+	 */
+	static final String[] COLUMNS = new String[]{
+			TickTockProvider.COLUMN_LABEL,
+			TickTockProvider.COLUMN_EPOCH_DAY,
+			TickTockProvider.COLUMN_EPOCH_MILLIS,
+			TickTockProvider.COLUMN_NOTIFY,
+			TickTockProvider.COLUMN_RECURRENCE
+	};
+
+	private static final String MAGIC = "ticktock";
+	private static final int VERSION = 1;
+	private static final String NULL = "\\N";
+
+	interface RowSink {
+
+		void onRow(ContentValues row);
+
+	}
+
+	private CountdownTransfer() {
+	}
+
+	/**
+	 * Write every row of the cursor, which should have {@link #COLUMNS} as its projection
+	 *
+	 * @return the number of rows written
+	 */
+	static int write(Cursor cursor, OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		writer.write(MAGIC);
+		writer.write('\t');
+		writer.write(String.valueOf(VERSION));
+		for (String column : COLUMNS) {
+			writer.write('\t');
+			writer.write(column);
+		}
+		writer.write('\n');
+
+		int rows = 0;
+		StringBuilder line = new StringBuilder();
+		while (cursor.moveToNext()) {
+			line.setLength(0);
+			for (int i = 0; i < COLUMNS.length; i++) {
+				if (i > 0) line.append('\t');
+				if (cursor.isNull(i)) line.append(NULL);
+				else escape(cursor.getString(i), line);
+			}
+			line.append('\n');
+			writer.append(line);
+			rows++;
+		}
+		writer.flush();
+		return rows;
+	}
+
+	/**
+	 * Read rows written by {@link #write(android.database.Cursor, java.io.OutputStream)}, passing
+	 * each to the sink as it's read. Columns this version doesn't know about are skipped.
+	 *
+	 * @return the number of rows read
+	 */
+	static int read(InputStream in, RowSink sink) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		String header = reader.readLine();
+		if (header == null) return 0;
+		String[] columns = header.split("\t", -1);
+		if (columns.length < 2 || !MAGIC.equals(columns[0])) throw new IOException("Not a Tick Tock export");
+
+		String[] known = new String[columns.length];
+		for (int i = 2; i < columns.length; i++) {
+			for (String column : COLUMNS) {
+				if (column.equals(columns[i])) known[i] = column;
+			}
+		}
+
+		int rows = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.length() == 0) continue;
+			String[] values = line.split("\t", -1);
+			ContentValues row = new ContentValues();
+			for (int i = 0; i < values.length && i + 2 < known.length; i++) {
+				String column = known[i + 2];
+				if (column == null) continue;
+				if (NULL.equals(values[i])) row.putNull(column);
+				else row.put(column, unescape(values[i]));
+			}
+			sink.onRow(row);
+			rows++;
+		}
+		return rows;
+	}
+
+	private static void escape(String value, StringBuilder out) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				default:
+					out.append(c);
+			}
+		}
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') == -1) return value;
+		StringBuilder out = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				switch (next) {
+					case 't':
+						out.append('\t');
+						break;
+					case 'n':
+						out.append('\n');
+						break;
+					case 'r':
+						out.append('\r');
+						break;
+					default:
+						out.append(next);
+				}
+			} else {
+				out.append(c);
+			}
+		}
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Countdown page views, kept when their page is destroyed so the next page can have one without
+ * inflating it. Spares are also inflated ahead of time, one at a time whenever the main thread is
+ * idle, so swiping onto a new page doesn't inflate anything either. Main thread only.
+ */
+final class CountdownViewPool implements MessageQueue.IdleHandler {
+
+	/**
+	 * Implemented by an activity that gives its countdown pages their views from a pool
+	 */
+	interface Owner {
+
+		CountdownViewPool getCountdownViewPool();
+
+	}
+
+	private final LayoutInflater mInflater;
+	private final int mSpares;
+
+	/**
+	 * Released and spare views, none of them in a parent
+	 */
+	private final List<View> mViews = new ArrayList<View>();
+	private boolean mFilling;
+
+	/**
+	 * @param spares how many views to keep ready. The pager's neighbouring pages plus one is enough
+	 *               for swiping in one direction.
+	 */
+	CountdownViewPool(Context context, int spares) {
+		mInflater = LayoutInflater.from(context);
+		mSpares = spares;
+	}
+
+	/**
+	 * Start inflating spares when the main thread next has nothing to do, if there aren't enough
+	 */
+	void prefill() {
+		if (!mFilling && mViews.size() < mSpares) {
+			mFilling = true;
+			Looper.myQueue().addIdleHandler(this);
+		}
+	}
+
+	/**
+	 * Stop filling and drop every view, for when the activity's going away
+	 */
+	void clear() {
+		if (mFilling) Looper.myQueue().removeIdleHandler(this);
+		mFilling = false;
+		mViews.clear();
+	}
+
+	/**
+	 * @return a view that isn't in any parent, inflating one only if there are no spares
+	 */
+	View acquire() {
+		View view = null;
+		while (view == null && !mViews.isEmpty()) {
+			view = mViews.remove(mViews.size() - 1);
+			// Nothing that's still attached somewhere is handed out, even if it was released
+			if (view.getParent() != null) view = null;
+		}
+		if (view == null) view = inflate();
+		prefill();
+		return view;
+	}
+
+	/**
+	 * Hand back the view a page inflated, once it's been taken out of whatever the fragment
+	 * manager wrapped it in. A view that's still in a parent isn't kept.
+	 */
+	void release(View view) {
+		if (view.getParent() == null && mViews.size() < mSpares * 2) mViews.add(view);
+	}
+
+	@Override
+	public boolean queueIdle() {
+		if (mViews.size() < mSpares) mViews.add(inflate());
+		// One per idle, so a frame never waits on more than one inflation
+		mFilling = mViews.size() < mSpares;
+		return mFilling;
+	}
+
+	private View inflate() {
+		return mInflater.inflate(R.layout.countdown, null);
+	}
+
+}
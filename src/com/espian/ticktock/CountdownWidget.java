@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the next few countdowns on the home screen. Days remaining only change at midnight, so
+ * the widget is drawn then, when the time zone or clock changes, and after a write that changes
+ * the rows it shows; there's no polling in between. Each draw is one query for a handful of rows,
+ * through the next_occurrence index, reading only the label and days remaining.
+ */
+public class CountdownWidget extends AppWidgetProvider {
+
+	static final String ACTION_REFRESH = "com.espian.ticktock.action.WIDGET_REFRESH";
+
+	private static final String[] PROJECTION = new String[]{
+			TickTockProvider.COLUMN_LABEL, TickTockProvider.COLUMN_DAYS_REMAINING
+	};
+	private static final int[] ROW_IDS = new int[]{R.id.widget_row1, R.id.widget_row2, R.id.widget_row3};
+	private static final int[] LABEL_IDS = new int[]{R.id.widget_label1, R.id.widget_label2, R.id.widget_label3};
+	private static final int[] DAYS_IDS = new int[]{R.id.widget_days1, R.id.widget_days2, R.id.widget_days3};
+
+	/**
+	 * Whether a refresh is waiting to run, so a burst of writes only queues one
+	 */
+	private static final AtomicBoolean sRefreshQueued = new AtomicBoolean();
+
+	/**
+	 * The labels and days remaining the widgets were last drawn with
+	 */
+	private static volatile String sDrawn;
+
+	/**
+	 * Redraws any widgets on the home screen if the rows they show have changed. Returns straight
+	 * away; the widgets are looked for, and the rows read, on a background thread.
+	 */
+	static void refresh(final Context context) {
+		if (!sRefreshQueued.compareAndSet(false, true)) return;
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				// Cleared first, so a write made while this reads is picked up by another run
+				sRefreshQueued.set(false);
+				AppWidgetManager manager = AppWidgetManager.getInstance(context);
+				int[] ids = manager.getAppWidgetIds(new ComponentName(context, CountdownWidget.class));
+				if (ids.length > 0) draw(context, manager, ids, DayMath.today(), false);
+			}
+		});
+	}
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		String action = intent.getAction();
+		if (Intent.ACTION_TIME_CHANGED.equals(action) || Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+			DayMath.invalidate();
+		}
+		if (ACTION_REFRESH.equals(action) || Intent.ACTION_TIME_CHANGED.equals(action)
+				|| Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+			AppWidgetManager manager = AppWidgetManager.getInstance(context);
+			onUpdate(context, manager, manager.getAppWidgetIds(new ComponentName(context, CountdownWidget.class)));
+		} else {
+			super.onReceive(context, intent);
+		}
+	}
+
+	@Override
+	public void onUpdate(final Context context, final AppWidgetManager manager, final int[] ids) {
+		if (ids.length == 0) return;
+		final PendingResult result = goAsync();
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					long now = System.currentTimeMillis();
+					draw(context, manager, ids, DayMath.today(now), true);
+					// Set, rather than repeating, so a time zone change can move it
+					AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+					alarms.set(AlarmManager.RTC, DayMath.nextMidnight(now), midnightIntent(context));
+				} finally {
+					result.finish();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onDisabled(Context context) {
+		AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+		alarms.cancel(midnightIntent(context));
+	}
+
+	private static PendingIntent midnightIntent(Context context) {
+		return PendingIntent.getBroadcast(context, 0, new Intent(ACTION_REFRESH, null, context, CountdownWidget.class),
+				PendingIntent.FLAG_UPDATE_CURRENT);
+	}
+
+	/**
+	 * @param always false to leave the widgets alone if they'd look the same as last time
+	 */
+	private static void draw(Context context, AppWidgetManager manager, int[] ids, long today, boolean always) {
+		RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget);
+		StringBuilder drawn = new StringBuilder();
+		Uri upcoming = TickTockProvider.countdownUri.buildUpon()
+				.appendQueryParameter(TickTockProvider.PARAM_TODAY, String.valueOf(today))
+				.appendQueryParameter(TickTockProvider.PARAM_LIMIT, String.valueOf(ROW_IDS.length))
+				.build();
+		Cursor cursor = context.getContentResolver().query(upcoming, PROJECTION,
+				TickTockProvider.COLUMN_NEXT_OCCURRENCE + ">=" + today, null, TickTockProvider.KEY_ORDER);
+		int row = 0;
+		try {
+			for (; row < ROW_IDS.length && cursor.moveToNext(); row++) {
+				views.setTextViewText(LABEL_IDS[row], cursor.getString(0));
+				views.setTextViewText(DAYS_IDS[row], context.getString(R.string.days_remaining_format, cursor.getLong(1)));
+				drawn.append(cursor.getString(0)).append('\n').append(cursor.getLong(1)).append('\n');
+				views.setViewVisibility(ROW_IDS[row], View.VISIBLE);
+			}
+		} finally {
+			cursor.close();
+		}
+		views.setViewVisibility(R.id.widget_empty, row == 0 ? View.VISIBLE : View.GONE);
+		for (; row < ROW_IDS.length; row++) {
+			views.setViewVisibility(ROW_IDS[row], View.GONE);
+		}
+		if (!always && drawn.toString().equals(sDrawn)) return;
+		views.setOnClickPendingIntent(R.id.widget, PendingIntent.getActivity(context, 0,
+				new Intent(context, TickTockActivity.class), 0));
+		manager.updateAppWidget(ids, views);
+		sDrawn = drawn.toString();
+	}
+
+}
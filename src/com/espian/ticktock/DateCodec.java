@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.support.v4.util.LruCache;
+
+import java.text.DateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats epoch days for display. Formatters are made once per locale and style, and each day's
+ * string is kept once made, so showing a date that's been shown before costs a cache lookup.
+ * Epoch days are formatted directly as UTC midnight, with no parsing and no Calendar. Safe to
+ * call from any thread.
+ */
+final class DateCodec {
+
+	private static final int CACHE_SIZE = 256;
+	private static final int STYLES = DateFormat.SHORT + 1;
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * Keyed by epoch day and style together, as epochDay * STYLES + style
+	 */
+	private static final LruCache<Long, String> sStrings = new LruCache<Long, String>(CACHE_SIZE);
+	private static final DateFormat[] sFormats = new DateFormat[STYLES];
+	private static Locale sLocale;
+
+	private DateCodec() {
+	}
+
+	/**
+	 * @return the epoch day as a medium-length date in the default locale
+	 */
+	static String format(long epochDay) {
+		return format(epochDay, DateFormat.MEDIUM);
+	}
+
+	/**
+	 * @param style one of the {@link DateFormat} styles, like {@link DateFormat#LONG}
+	 * @return the epoch day as a date in the default locale
+	 */
+	static String format(long epochDay, int style) {
+		DateFormat format = formatFor(style);
+		Long key = epochDay * STYLES + style;
+		String formatted = sStrings.get(key);
+		if (formatted == null) {
+			synchronized (format) {
+				formatted = format.format(epochDay * EpochDays.MILLIS_PER_DAY);
+			}
+			sStrings.put(key, formatted);
+		}
+		return formatted;
+	}
+
+	/**
+	 * @return the formatter for the style in the current default locale, dropping everything made
+	 * for the previous one if the locale's changed
+	 */
+	private static synchronized DateFormat formatFor(int style) {
+		Locale locale = Locale.getDefault();
+		if (!locale.equals(sLocale)) {
+			sLocale = locale;
+			for (int i = 0; i < STYLES; i++) {
+				sFormats[i] = null;
+			}
+			sStrings.evictAll();
+		}
+		DateFormat format = sFormats[style];
+		if (format == null) {
+			format = DateFormat.getDateInstance(style, locale);
+			format.setTimeZone(UTC);
+			sFormats[style] = format;
+		}
+		return format;
+	}
+
+}
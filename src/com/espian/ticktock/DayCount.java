@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+/**
+ * The days remaining until an epoch day, and the local day they were counted from. Moving it to
+ * another day counts again from the two days, rather than adjusting the old count, so it comes
+ * out right however many times it's told about a change of day, and whichever day it was made on.
+ */
+final class DayCount {
+
+	final long epochDay;
+	private long mCountedFrom;
+	private long mDaysRemaining;
+
+	DayCount(long epochDay, long today) {
+		this.epochDay = epochDay;
+		mCountedFrom = today;
+		mDaysRemaining = DayMath.daysBetween(today, epochDay);
+	}
+
+	/**
+	 * Count from the given day instead
+	 *
+	 * @return true if that changed the days remaining
+	 */
+	boolean countFrom(long today) {
+		if (today == mCountedFrom) return false;
+		mCountedFrom = today;
+		mDaysRemaining = DayMath.daysBetween(today, epochDay);
+		return true;
+	}
+
+	long countedFrom() {
+		return mCountedFrom;
+	}
+
+	long daysRemaining() {
+		return mDaysRemaining;
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic on epoch days, with nothing but longs. Working out today needs the time zone's
+ * offset, which is looked up once and then reused until the next local midnight, so every call
+ * in between is a range check. Call {@link #invalidate()} when the time zone or clock changes.
+ */
+final class DayMath {
+
+	/**
+	 * The local day the last lookup found, and the instants it runs between. Replaced whole, once
+	 * a day, so readers on any thread see a consistent one.
+	 */
+	private static final class Day {
+		final long epochDay;
+		final long startMillis;
+		final long endMillis;
+
+		Day(long epochDay, long startMillis, long endMillis) {
+			this.epochDay = epochDay;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+		}
+	}
+
+	private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+	private static volatile Day sToday = new Day(0, 0, 0);
+
+	private DayMath() {
+	}
+
+	/**
+	 * @return the local epoch day it is now
+	 */
+	static long today() {
+		return today(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the local epoch day the instant falls on
+	 */
+	static long today(long nowMillis) {
+		return dayOf(nowMillis).epochDay;
+	}
+
+	/**
+	 * @return the instant the local day containing the given one ends, when days remaining all
+	 * drop by one
+	 */
+	static long nextMidnight(long nowMillis) {
+		return dayOf(nowMillis).endMillis;
+	}
+
+	/**
+	 * @return the instant the given hour of the local epoch day starts. On a day the clocks change,
+	 * an hour that's skipped is taken as the one after it.
+	 */
+	static long atHour(long epochDay, int hour) {
+		long local = epochDay * EpochDays.MILLIS_PER_DAY + hour * MILLIS_PER_HOUR;
+		TimeZone zone = TimeZone.getDefault();
+		return local - zone.getOffset(local - zone.getOffset(local));
+	}
+
+	/**
+	 * @return how many days from one epoch day to another, negative if it's already passed
+	 */
+	static long daysBetween(long fromEpochDay, long toEpochDay) {
+		return toEpochDay - fromEpochDay;
+	}
+
+	/**
+	 * Forgets the cached day, for after the time zone or the clock has changed
+	 */
+	static void invalidate() {
+		sToday = new Day(0, 0, 0);
+	}
+
+	private static Day dayOf(long nowMillis) {
+		Day day = sToday;
+		if (nowMillis >= day.startMillis && nowMillis < day.endMillis) return day;
+
+		TimeZone zone = TimeZone.getDefault();
+		int offset = zone.getOffset(nowMillis);
+		long epochDay = floorDiv(nowMillis + offset, EpochDays.MILLIS_PER_DAY);
+		long start = epochDay * EpochDays.MILLIS_PER_DAY - offset;
+		// The offset at midnight tonight, in case daylight saving starts or ends later today
+		long end = (epochDay + 1) * EpochDays.MILLIS_PER_DAY;
+		end -= zone.getOffset(end - offset);
+		return sToday = new Day(epochDay, start, end);
+	}
+
+	private static long floorDiv(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		return dividend % divisor < 0 ? quotient - 1 : quotient;
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+/**
+ * Keeps day counts that are on screen right past midnight and through changes to the clock or
+ * time zone. A change of day is passed on as the new local day, so each count can be worked out
+ * again from its own date in place; a time zone change also asks for anything else worked out in
+ * local time to be redone. Register it while the counts are visible.
+ */
+class DayRollover extends BroadcastReceiver {
+
+	interface Listener {
+
+		/**
+		 * The local day has moved on (or, if the clock was put back, back) to the given epoch day
+		 */
+		void onDayChanged(long today);
+
+		/**
+		 * The time zone has changed, so anything worked out in local time should be done again
+		 */
+		void onTimeZoneChanged();
+
+	}
+
+	private final Clock mClock;
+	private final Listener mListener;
+	private long mToday;
+
+	DayRollover(Clock clock, Listener listener) {
+		mClock = clock;
+		mListener = listener;
+		mToday = DayMath.today(clock.currentTimeMillis());
+	}
+
+	/**
+	 * Start listening, first catching up on any change of day while it wasn't
+	 */
+	void register(Context context) {
+		IntentFilter filter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+		filter.addAction(Intent.ACTION_TIME_CHANGED);
+		filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+		context.registerReceiver(this, filter);
+		check();
+	}
+
+	void unregister(Context context) {
+		context.unregisterReceiver(this);
+	}
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		DayMath.invalidate();
+		// A new time zone can put the local date either side of the old one, too
+		check();
+		if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) mListener.onTimeZoneChanged();
+	}
+
+	/**
+	 * Tells the listener if the day's changed since it was last told
+	 */
+	void check() {
+		long today = DayMath.today(mClock.currentTimeMillis());
+		if (today == mToday) return;
+		mToday = today;
+		mListener.onDayChanged(today);
+	}
+
+}
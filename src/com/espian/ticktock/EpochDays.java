@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversions between local calendar dates and epoch days (days since 1970-01-01), which is
+ * how countdown dates are stored. An epoch day names a calendar date, not an instant, so
+ * it's unaffected by the locale or time zone the date was picked in.
+ */
+final class EpochDays {
+
+	static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private EpochDays() {
+	}
+
+	/**
+	 * @return the epoch day of the local calendar date that the given instant falls on
+	 */
+	static long fromDate(Date date) {
+		Calendar local = Calendar.getInstance();
+		local.setTime(date);
+		Calendar utc = Calendar.getInstance(UTC);
+		utc.clear();
+		utc.set(local.get(Calendar.YEAR), local.get(Calendar.MONTH), local.get(Calendar.DAY_OF_MONTH));
+		return utc.getTimeInMillis() / MILLIS_PER_DAY;
+	}
+
+	/**
+	 * @return local midnight at the start of the given epoch day
+	 */
+	static Date toDate(long epochDay) {
+		Calendar utc = Calendar.getInstance(UTC);
+		utc.setTimeInMillis(epochDay * MILLIS_PER_DAY);
+		Calendar local = Calendar.getInstance();
+		local.clear();
+		local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+		return local.getTime();
+	}
+
+}
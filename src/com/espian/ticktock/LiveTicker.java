@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One clock for every live countdown on screen. It wakes once a second, on the first frame after
+ * the second changes, so the seconds shown change exactly when a frame is drawn, and it stops
+ * completely when nothing is listening. Before Jelly Bean, which has no Choreographer, it falls
+ * back to a Handler at the same times. Main thread only.
+ */
+final class LiveTicker {
+
+	interface Listener {
+
+		/**
+		 * Called when the listener's added, then each time the second changes
+		 */
+		void onTick(long nowMillis);
+
+	}
+
+	private static final long TICK_MILLIS = 1000;
+	private static final boolean HAS_CHOREOGRAPHER = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+	private static final List<Listener> sListeners = new ArrayList<Listener>();
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+	private static final Runnable sTick = new Runnable() {
+		@Override
+		public void run() {
+			tick();
+		}
+	};
+	private static boolean sScheduled;
+
+	private LiveTicker() {
+	}
+
+	static void add(Listener listener) {
+		if (sListeners.contains(listener)) return;
+		sListeners.add(listener);
+		listener.onTick(System.currentTimeMillis());
+		if (!sScheduled) scheduleNext();
+	}
+
+	static void remove(Listener listener) {
+		sListeners.remove(listener);
+		if (sListeners.isEmpty() && sScheduled) {
+			sScheduled = false;
+			if (HAS_CHOREOGRAPHER) FrameTick.INSTANCE.cancel();
+			else sHandler.removeCallbacks(sTick);
+		}
+	}
+
+	private static void scheduleNext() {
+		long delay = TICK_MILLIS - System.currentTimeMillis() % TICK_MILLIS;
+		if (HAS_CHOREOGRAPHER) FrameTick.INSTANCE.post(delay);
+		else sHandler.postDelayed(sTick, delay);
+		sScheduled = true;
+	}
+
+	private static void tick() {
+		sScheduled = false;
+		long now = System.currentTimeMillis();
+		// Backwards, as a listener can remove itself
+		for (int i = sListeners.size() - 1; i >= 0; i--) {
+			sListeners.get(i).onTick(now);
+		}
+		if (!sListeners.isEmpty() && !sScheduled) scheduleNext();
+	}
+
+	/**
+	 * Kept in its own class so Choreographer is only loaded where it exists
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private static final class FrameTick implements Choreographer.FrameCallback {
+
+		static final FrameTick INSTANCE = new FrameTick();
+
+		void post(long delayMillis) {
+			Choreographer.getInstance().postFrameCallbackDelayed(this, delayMillis);
+		}
+
+		void cancel() {
+			Choreographer.getInstance().removeFrameCallback(this);
+		}
+
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			tick();
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.app.LoaderManager;
+import android.content.CursorLoader;
+import android.content.Loader;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.support.v4.app.FragmentActivity;
+import android.view.ActionMode;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+import android.widget.Toast;
+import com.espian.ticktock.oss.SwipeDismissListViewTouchListener;
+
+/**
+ * Lists every countdown so several can be deleted at once, either by swiping them away or by
+ * selecting them. However many go, it's one DELETE in one transaction, and one reload.
+ */
+public class ManageActivity extends FragmentActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+
+	private static final String[] PROJECTION = new String[]{
+			BaseColumns._ID, TickTockProvider.COLUMN_LABEL, TickTockProvider.COLUMN_DAYS_REMAINING
+	};
+
+	private ListView mList;
+	private SimpleCursorAdapter mAdapter;
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		setContentView(R.layout.manage);
+		getActionBar().setDisplayHomeAsUpEnabled(true);
+
+		mAdapter = new SimpleCursorAdapter(this, android.R.layout.simple_list_item_activated_2, null,
+				new String[]{TickTockProvider.COLUMN_LABEL, TickTockProvider.COLUMN_DAYS_REMAINING},
+				new int[]{android.R.id.text1, android.R.id.text2}, 0);
+		mAdapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+			@Override
+			public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+				if (view.getId() != android.R.id.text2) return false;
+				((TextView) view).setText(getString(R.string.days_remaining_format, cursor.getInt(columnIndex)));
+				return true;
+			}
+		});
+
+		mList = (ListView) findViewById(android.R.id.list);
+		mList.setEmptyView(findViewById(android.R.id.empty));
+		mList.setAdapter(mAdapter);
+
+		SwipeDismissListViewTouchListener touchListener = new SwipeDismissListViewTouchListener(mList,
+				new SwipeDismissListViewTouchListener.OnDismissCallback() {
+					@Override
+					public void onDismiss(ListView listView, int[] reverseSortedPositions) {
+						long[] ids = new long[reverseSortedPositions.length];
+						for (int i = 0; i < reverseSortedPositions.length; i++) {
+							ids[i] = mAdapter.getItemId(reverseSortedPositions[i]);
+						}
+						delete(ids);
+					}
+				});
+		mList.setOnTouchListener(touchListener);
+		mList.setOnScrollListener(touchListener.makeScrollListener());
+
+		mList.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+		mList.setMultiChoiceModeListener(new AbsListView.MultiChoiceModeListener() {
+			@Override
+			public void onItemCheckedStateChanged(ActionMode mode, int position, long id, boolean checked) {
+				mode.setTitle(getString(R.string.selected_count, mList.getCheckedItemCount()));
+			}
+
+			@Override
+			public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+				getMenuInflater().inflate(R.menu.manage, menu);
+				return true;
+			}
+
+			@Override
+			public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+				return false;
+			}
+
+			@Override
+			public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+				if (item.getItemId() == R.id.menu_delete) {
+					delete(mList.getCheckedItemIds());
+					mode.finish();
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public void onDestroyActionMode(ActionMode mode) {
+			}
+		});
+
+		getLoaderManager().initLoader(TickTockProvider.LOADER_FULL_LIST, null, this);
+	}
+
+	/**
+	 * Delete all the countdowns at once. The loader reloads itself from the provider's single
+	 * change notification.
+	 */
+	private void delete(long[] ids) {
+		if (ids.length == 0) return;
+		int deleted = getContentResolver().delete(TickTockProvider.countdownUri, TickTockProvider.whereIdIn(ids), null);
+		if (deleted == 0) Toast.makeText(this, R.string.failed_delete, Toast.LENGTH_SHORT).show();
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		if (item.getItemId() == android.R.id.home) {
+			finish();
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	@Override
+	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+		return new CursorLoader(this, TickTockProvider.countdownUri.buildUpon()
+				.appendQueryParameter(TickTockProvider.PARAM_TODAY, String.valueOf(DayMath.today())).build(),
+				PROJECTION, null, null, TickTockProvider.KEY_ORDER);
+	}
+
+	@Override
+	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+		mAdapter.swapCursor(data);
+	}
+
+	@Override
+	public void onLoaderReset(Loader<Cursor> loader) {
+		mAdapter.swapCursor(null);
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Posts due notifications when the alarm goes off, and re-arms the alarm after anything that
+ * would lose or shift it: a reboot, or the clock or time zone changing.
+ */
+public class NotificationReceiver extends BroadcastReceiver {
+
+	private static final String TAG = "NotificationReceiver";
+
+	@Override
+	public void onReceive(final Context context, final Intent intent) {
+		if (!NotificationScheduler.ACTION_NOTIFY.equals(intent.getAction())) DayMath.invalidate();
+		final PendingResult result = goAsync();
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (NotificationScheduler.ACTION_NOTIFY.equals(intent.getAction())) {
+						new NotificationScheduler(context, Clock.SYSTEM).postDue();
+					}
+					// Also covers an alarm that found nothing due, so wrote nothing to re-arm it
+					context.getContentResolver().call(TickTockProvider.countdownUri,
+							TickTockProvider.METHOD_SCHEDULE_NOTIFICATIONS, null, null);
+				} catch (RemoteException e) {
+					Log.w(TAG, "Couldn't post notifications", e);
+				} catch (OperationApplicationException e) {
+					Log.w(TAG, "Couldn't post notifications", e);
+				} finally {
+					result.finish();
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.app.AlarmManager;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps one alarm pending, for the earliest countdown notification, and posts every notification
+ * that's due when it goes off. Each countdown's next notification is stored as an indexed epoch
+ * day, so finding the earliest is a single index lookup however many countdowns there are.
+ */
+class NotificationScheduler {
+
+	static final String ACTION_NOTIFY = "com.espian.ticktock.action.NOTIFY";
+
+	/**
+	 * The hour of the day, local time, that notifications are posted at
+	 */
+	static final int NOTIFY_HOUR = 9;
+
+	private static final String NOTIFICATION_TAG = "countdown";
+
+	private static final String[] DUE_PROJECTION = new String[]{
+			BaseColumns._ID,
+			TickTockProvider.COLUMN_LABEL,
+			TickTockProvider.COLUMN_EPOCH_DAY,
+			TickTockProvider.COLUMN_RECURRENCE,
+			TickTockProvider.COLUMN_NOTIFY,
+			TickTockProvider.COLUMN_NOTIFY_DAY
+	};
+
+	private final Context mContext;
+	private final Clock mClock;
+
+	NotificationScheduler(Context context, Clock clock) {
+		mContext = context;
+		mClock = clock;
+	}
+
+	/**
+	 * Replaces the pending alarm with one for the given day, or cancels it
+	 *
+	 * @param notifyDay the earliest epoch day any countdown should notify on, or null if none should
+	 */
+	void arm(Long notifyDay) {
+		AlarmManager alarms = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+		PendingIntent operation = PendingIntent.getBroadcast(mContext, 0,
+				new Intent(ACTION_NOTIFY, null, mContext, NotificationReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+		if (notifyDay == null) {
+			alarms.cancel(operation);
+		} else {
+			alarms.set(AlarmManager.RTC_WAKEUP, alarmTime(notifyDay, mClock.currentTimeMillis()), operation);
+		}
+	}
+
+	/**
+	 * Posts every notification that's due, then moves each of those countdowns on to its next
+	 * notification, if it has one, in one batch. The provider re-arms the alarm when the batch commits.
+	 *
+	 * @return the number of notifications posted
+	 */
+	int postDue() throws RemoteException, OperationApplicationException {
+		long now = mClock.currentTimeMillis();
+		long today = DayMath.today(now);
+		ContentResolver resolver = mContext.getContentResolver();
+		NotificationManager manager = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+		ArrayList<ContentProviderOperation> moves = new ArrayList<ContentProviderOperation>();
+		int posted = 0;
+
+		Cursor due = resolver.query(TickTockProvider.countdownUri, DUE_PROJECTION,
+				TickTockProvider.COLUMN_NOTIFY_DAY + "<=" + dueThrough(now), null, null);
+		try {
+			while (due.moveToNext()) {
+				long id = due.getLong(0);
+				long notifyDay = due.getLong(5);
+				Integer daysBefore = daysBefore(due.getString(4));
+				// The occurrence it's about is worked out from the notify day, as a repeating
+				// countdown's next occurrence can still be an earlier one
+				long occurrence = notifyDay + (daysBefore == null ? 0 : daysBefore);
+				// One that's already been, while the alarm couldn't go off, has nothing left to say
+				if (daysBefore != null && occurrence >= today) {
+					manager.notify(NOTIFICATION_TAG, (int) id, build(due.getString(1), occurrence - today));
+					posted++;
+				}
+				ContentValues values = new ContentValues(2);
+				values.put(TickTockProvider.COLUMN_NOTIFIED_DAY, notifyDay);
+				values.put(TickTockProvider.COLUMN_NOTIFY_DAY, daysBefore == null ? null
+						: nextNotifyDay(due.getLong(2), due.getInt(3), daysBefore, notifyDay, today));
+				moves.add(ContentProviderOperation.newUpdate(TickTockProvider.countdownUri(id))
+						.withValues(values).build());
+			}
+		} finally {
+			due.close();
+		}
+
+		if (!moves.isEmpty()) resolver.applyBatch(TickTockProvider.AUTHORITY, moves);
+		return posted;
+	}
+
+	private Notification build(String label, long daysAway) {
+		PendingIntent open = PendingIntent.getActivity(mContext, 0, new Intent(mContext, TickTockActivity.class), 0);
+		String text = daysAway == 0 ? mContext.getString(R.string.notify_today)
+				: mContext.getResources().getQuantityString(R.plurals.notify_days_away, (int) daysAway, daysAway);
+		return new NotificationCompat.Builder(mContext)
+				.setSmallIcon(R.drawable.ic_launcher)
+				.setContentTitle(label)
+				.setContentText(text)
+				.setContentIntent(open)
+				.setAutoCancel(true)
+				.setWhen(mClock.currentTimeMillis())
+				.build();
+	}
+
+	/**
+	 * @return when to go off to post the notifications for the given day: the notify hour on it,
+	 * or straight away if that's already passed
+	 */
+	static long alarmTime(long notifyDay, long now) {
+		return Math.max(now, DayMath.atHour(notifyDay, NOTIFY_HOUR));
+	}
+
+	/**
+	 * @return the last epoch day whose notifications are due at the given instant: today once the
+	 * notify hour has passed, otherwise yesterday
+	 */
+	static long dueThrough(long now) {
+		long today = DayMath.today(now);
+		return now >= DayMath.atHour(today, NOTIFY_HOUR) ? today : today - 1;
+	}
+
+	/**
+	 * @return the days before each occurrence that the notify column asks to be told, or null if it
+	 * doesn't hold a number of days
+	 */
+	static Integer daysBefore(String notify) {
+		if (notify == null) return null;
+		try {
+			int days = Integer.parseInt(notify);
+			return days < 0 ? null : days;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param epochDay    the countdown's date, or its first occurrence if it repeats
+	 * @param rule        its {@link Recurrence} rule
+	 * @param daysBefore  how many days before each occurrence to notify
+	 * @param notifiedDay the day its last notification was posted on, or null if none has been
+	 * @return the first notify day after the last one posted, for an occurrence that hasn't passed,
+	 * or null if there isn't one
+	 */
+	static Long nextNotifyDay(long epochDay, int rule, int daysBefore, Long notifiedDay, long today) {
+		long from = notifiedDay == null ? today : Math.max(today, notifiedDay + daysBefore + 1);
+		long occurrence = Recurrence.nextOccurrence(epochDay, rule, from);
+		return occurrence < from ? null : occurrence - daysBefore;
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and row counts for every provider operation, split by the type of uri it was made on.
+ * Each pairing has a fixed histogram of power-of-two microsecond buckets, so recording never
+ * allocates, and percentiles are accurate to within a factor of two.
+ */
+class ProviderStats {
+
+	static final int OP_QUERY = 0;
+	static final int OP_INSERT = 1;
+	static final int OP_UPDATE = 2;
+	static final int OP_DELETE = 3;
+	static final int OP_BULK_INSERT = 4;
+	static final int OP_APPLY_BATCH = 5;
+	static final int OP_OPEN_FILE = 6;
+
+	static final int URI_ENTRIES = 0;
+	static final int URI_ENTRY = 1;
+	static final int URI_SEARCH = 2;
+	static final int URI_FILE = 3;
+	static final int URI_OTHER = 4;
+
+	private static final String[] OP_NAMES = new String[]{
+			"query", "insert", "update", "delete", "bulkInsert", "applyBatch", "openFile"
+	};
+	private static final String[] URI_NAMES = new String[]{
+			"entries", "entry", "search", "file", "other"
+	};
+
+	/**
+	 * Bucket i holds latencies below 2^i microseconds; the last one holds everything slower
+	 */
+	private static final int BUCKETS = 32;
+
+	private final Histogram[][] mHistograms = new Histogram[OP_NAMES.length][URI_NAMES.length];
+	private final AtomicLong mCommits = new AtomicLong();
+
+	ProviderStats() {
+		for (int op = 0; op < OP_NAMES.length; op++) {
+			for (int type = 0; type < URI_NAMES.length; type++) {
+				mHistograms[op][type] = new Histogram();
+			}
+		}
+	}
+
+	/**
+	 * @param startNanos when the operation started, from {@link System#nanoTime()}
+	 * @param rows       the rows it returned or changed
+	 */
+	void record(int op, int uriType, long startNanos, int rows) {
+		mHistograms[op][uriType].record((System.nanoTime() - startNanos) / 1000, rows);
+	}
+
+	/**
+	 * Counts a transaction the provider committed. Statements run outside one each commit on
+	 * their own, and aren't counted.
+	 */
+	void recordCommit() {
+		mCommits.incrementAndGet();
+	}
+
+	/**
+	 * @return the transactions the provider has committed
+	 */
+	long commits() {
+		return mCommits.get();
+	}
+
+	long count(int op, int uriType) {
+		return mHistograms[op][uriType].count();
+	}
+
+	long rows(int op, int uriType) {
+		return mHistograms[op][uriType].rows();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the upper bound, in microseconds, of the bucket the percentile falls into. Zero if
+	 * nothing has been recorded.
+	 */
+	long percentileMicros(int op, int uriType, int percentile) {
+		return mHistograms[op][uriType].percentile(percentile);
+	}
+
+	void reset() {
+		for (Histogram[] histograms : mHistograms) {
+			for (Histogram histogram : histograms) {
+				histogram.reset();
+			}
+		}
+		mCommits.set(0);
+	}
+
+	void dump(PrintWriter writer) {
+		writer.print("Transactions committed: ");
+		writer.println(mCommits.get());
+		writer.println("Provider operations (latencies in us):");
+		for (int op = 0; op < OP_NAMES.length; op++) {
+			for (int type = 0; type < URI_NAMES.length; type++) {
+				Histogram histogram = mHistograms[op][type];
+				if (histogram.count() == 0) continue;
+				writer.print("  ");
+				writer.print(OP_NAMES[op]);
+				writer.print(' ');
+				writer.print(URI_NAMES[type]);
+				writer.print(": count=");
+				writer.print(histogram.count());
+				writer.print(" rows=");
+				writer.print(histogram.rows());
+				writer.print(" p50<");
+				writer.print(histogram.percentile(50));
+				writer.print(" p95<");
+				writer.print(histogram.percentile(95));
+				writer.print(" p99<");
+				writer.println(histogram.percentile(99));
+			}
+		}
+	}
+
+	private static class Histogram {
+
+		private final long[] mBuckets = new long[BUCKETS];
+		private long mCount;
+		private long mRows;
+
+		synchronized void record(long micros, int rows) {
+			int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+			mBuckets[Math.min(bucket, BUCKETS - 1)]++;
+			mCount++;
+			mRows += rows;
+		}
+
+		synchronized long count() {
+			return mCount;
+		}
+
+		synchronized long rows() {
+			return mRows;
+		}
+
+		synchronized long percentile(int percentile) {
+			if (mCount == 0) return 0;
+			long threshold = (mCount * percentile + 99) / 100;
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += mBuckets[i];
+				if (seen >= threshold) return 1L << i;
+			}
+			return 1L << (BUCKETS - 1);
+		}
+
+		synchronized void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				mBuckets[i] = 0;
+			}
+			mCount = 0;
+			mRows = 0;
+		}
+	}
+
+}
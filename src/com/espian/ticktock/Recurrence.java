@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * How a countdown repeats, as stored in its recurrence column, and working out its next occurrence.
+ * Occurrences are always counted from the original date, so a monthly countdown on the 31st falls
+ * on the last day of shorter months, then goes back to the 31st.
+ */
+final class Recurrence {
+
+	static final int NONE = 0;
+	static final int WEEKLY = 1;
+	static final int MONTHLY = 2;
+	static final int YEARLY = 3;
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private Recurrence() {
+	}
+
+	/**
+	 * @param epochDay the countdown's original date
+	 * @param rule     one of the constants in this class
+	 * @param today    the epoch day to find the next occurrence from
+	 * @return the first occurrence on or after today, or the original date if it doesn't repeat
+	 * (or hasn't happened yet)
+	 */
+	static long nextOccurrence(long epochDay, int rule, long today) {
+		if (rule == NONE || epochDay >= today) return epochDay;
+
+		switch (rule) {
+
+			case WEEKLY:
+				return epochDay + (today - epochDay + 6) / 7 * 7;
+
+			case MONTHLY:
+				return nextByMonths(epochDay, 1, today);
+
+			case YEARLY:
+				return nextByMonths(epochDay, 12, today);
+
+		}
+		return epochDay;
+	}
+
+	private static long nextByMonths(long epochDay, int step, long today) {
+		Calendar calendar = Calendar.getInstance(UTC);
+		calendar.setTimeInMillis(today * EpochDays.MILLIS_PER_DAY);
+		int todayMonths = calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+		calendar.setTimeInMillis(epochDay * EpochDays.MILLIS_PER_DAY);
+		int year = calendar.get(Calendar.YEAR);
+		int month = calendar.get(Calendar.MONTH);
+		int day = calendar.get(Calendar.DAY_OF_MONTH);
+
+		// Start at the first occurrence in today's month (or the step before), then step forward
+		int steps = (todayMonths - (year * 12 + month)) / step;
+		while (true) {
+			long occurrence = addMonths(calendar, year, month, day, steps * step);
+			if (occurrence >= today) return occurrence;
+			steps++;
+		}
+	}
+
+	private static long addMonths(Calendar calendar, int year, int month, int day, int months) {
+		calendar.clear();
+		calendar.set(year, month, 1);
+		calendar.add(Calendar.MONTH, months);
+		calendar.set(Calendar.DAY_OF_MONTH, Math.min(day, calendar.getActualMaximum(Calendar.DAY_OF_MONTH)));
+		return calendar.getTimeInMillis() / EpochDays.MILLIS_PER_DAY;
+	}
+
+}
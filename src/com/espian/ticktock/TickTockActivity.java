@@ -16,11 +16,10 @@
 
 package com.espian.ticktock;
 
-import android.app.LoaderManager;
-import android.content.CursorLoader;
+import android.content.AsyncQueryHandler;
 import android.content.Intent;
-import android.content.Loader;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.StrictMode;
 import android.provider.BaseColumns;
@@ -28,18 +27,32 @@ import android.support.v4.app.FragmentActivity;
 import android.support.v4.view.ViewPager;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.SearchView;
 import android.widget.Toast;
 import com.espian.ticktock.oss.CursorPagerAdapter;
 
-public class TickTockActivity extends FragmentActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class TickTockActivity extends FragmentActivity implements CountdownPages.Listener, DayRollover.Listener,
+		CountdownViewPool.Owner {
+
+	/**
+	 * The pager keeps one page either side of the current one, so this covers a swipe either way
+	 */
+	private static final int SPARE_PAGE_VIEWS = 2;
 
 	CursorPagerAdapter<CountdownFragment> mPagerAdapter;
 	ViewPager mPager;
+	CountdownPages mPages;
+	SearchHandler mSearchHandler;
+	DayRollover mRollover;
+	CountdownViewPool mViewPool;
+	long mPendingJumpId = -1;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.main);
+		mViewPool = new CountdownViewPool(this, SPARE_PAGE_VIEWS);
+		mViewPool.prefill();
 
 		if (BuildConfig.DEBUG) {
 			StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder().detectAll().penaltyFlashScreen()
@@ -48,14 +61,69 @@ public class TickTockActivity extends FragmentActivity implements LoaderManager.
 
 		mPagerAdapter = new TitleCursorPagerAdapter(this);
 		(mPager = (ViewPager) findViewById(R.id.pager)).setAdapter(mPagerAdapter);
+		mPager.setOnPageChangeListener(new ViewPager.SimpleOnPageChangeListener() {
+			@Override
+			public void onPageSelected(int position) {
+				mPages.onPositionChanged(position);
+			}
+		});
+
+		mPages = new CountdownPages(this, getLoaderManager(), CountdownContract.PAGE_PROJECTION,
+				CountdownPages.DEFAULT_PAGE_SIZE, this);
+		mPages.start(savedInstanceState);
+		mSearchHandler = new SearchHandler();
+		mRollover = new DayRollover(Clock.SYSTEM, this);
+
+	}
+
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		mViewPool.clear();
+	}
+
+	@Override
+	public CountdownViewPool getCountdownViewPool() {
+		return mViewPool;
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		mRollover.register(this);
+	}
 
-		getLoaderManager().initLoader(0, null, this);
+	@Override
+	protected void onPause() {
+		mRollover.unregister(this);
+		super.onPause();
+	}
 
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		mPages.onSaveInstanceState(outState);
 	}
 
 	@Override
 	public boolean onCreateOptionsMenu(Menu menu) {
 		getMenuInflater().inflate(R.menu.main, menu);
+		final MenuItem searchItem = menu.findItem(R.id.menu_search);
+		SearchView searchView = (SearchView) searchItem.getActionView();
+		searchView.setQueryHint(getString(R.string.search_hint));
+		searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+			@Override
+			public boolean onQueryTextSubmit(String query) {
+				mSearchHandler.search(query);
+				searchItem.collapseActionView();
+				return true;
+			}
+
+			@Override
+			public boolean onQueryTextChange(String newText) {
+				return false;
+			}
+		});
 		return true;
 	}
 
@@ -79,20 +147,23 @@ public class TickTockActivity extends FragmentActivity implements LoaderManager.
 			case R.id.menu_delete:
 				if (mPagerAdapter.getCount() == 0) Toast.makeText(this, R.string.no_delete, Toast.LENGTH_SHORT).show();
 				else {
-					String idString = ((CountdownFragment) mPagerAdapter.getItem(mPager.getCurrentItem())).getCountdownId();
-					int i = getContentResolver().delete(TickTockProvider.countdownUri,
-							BaseColumns._ID + "=?", new String[]{idString});
-					if (i != 0) getLoaderManager().restartLoader(0, null, this);
-					else Toast.makeText(this, R.string.failed_delete, Toast.LENGTH_SHORT).show();
-					mPagerAdapter.notifyDataSetChanged();
+					long id = ((CountdownFragment) mPagerAdapter.getItem(mPager.getCurrentItem())).getCountdownId();
+					int i = getContentResolver().delete(TickTockProvider.countdownUri(id), null, null);
+					// The loader picks up the change itself, through the provider's notification
+					if (i == 0) Toast.makeText(this, R.string.failed_delete, Toast.LENGTH_SHORT).show();
 				}
 				return true;
 
+			case R.id.menu_manage:
+				startActivity(new Intent(this, ManageActivity.class));
+				return true;
+
 			case R.id.menu_edit:
 				if (mPagerAdapter.getCount() == 0) Toast.makeText(this, R.string.no_edit, Toast.LENGTH_SHORT).show();
 				else {
-					String idString2 = ((CountdownFragment) mPagerAdapter.getItem(mPager.getCurrentItem())).getCountdownId();
-					startActivityForResult(new Intent(this, AddEditActivity.class).putExtra(BaseColumns._ID, idString2), 1);
+					long id = ((CountdownFragment) mPagerAdapter.getItem(mPager.getCurrentItem())).getCountdownId();
+					startActivityForResult(new Intent(this, AddEditActivity.class)
+							.putExtra(BaseColumns._ID, String.valueOf(id)), 1);
 				}
 				return true;
 
@@ -102,11 +173,8 @@ public class TickTockActivity extends FragmentActivity implements LoaderManager.
 
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-		if (requestCode == 1) {
-			if (resultCode == RESULT_OK) {
-				getLoaderManager().restartLoader(0, null, this);
-			}
-		}
+		// No need to restart the loader for a successful add or edit - the provider notifies
+		// the loader's cursor, which reloads itself.
 
 		// Invalidate the options menu - if they've gone from 0 to 1 items
 		// then we can un-hide delete and edit
@@ -114,22 +182,83 @@ public class TickTockActivity extends FragmentActivity implements LoaderManager.
 	}
 
 	@Override
-	public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-		return new CursorLoader(this, TickTockProvider.countdownUri, null, null, null, null);
+	public void onPagesChanged(Cursor pages, int shift) {
+		mPagerAdapter.swapCursor(pages, shift);
+		jumpToSearchResult(pages);
+		// Going from 1 <-> 0 items, hide or show edit/delete
+		invalidateOptionsMenu();
 	}
 
 	@Override
-	public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-		mPagerAdapter.swapCursor(data);
-		// Going from 1 <-> 0 items, hide or show edit/delete
-		invalidateOptionsMenu();
+	public void onDayChanged(long today) {
+		// Only the pages that exist need touching; the rest work out their count when they're made
+		for (CountdownFragment fragment : mPagerAdapter.getLiveFragments()) {
+			fragment.countFrom(today);
+		}
+		// A repeating countdown that's just passed moves on to its next occurrence, which reloads
+		// the pages through the provider's notification. Nothing reloads if none have.
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				getContentResolver().call(TickTockProvider.countdownUri,
+						TickTockProvider.METHOD_ADVANCE_OCCURRENCES, null, null);
+			}
+		});
 	}
 
 	@Override
-	public void onLoaderReset(Loader<Cursor> loader) {
-		mPagerAdapter.swapCursor(null);
-		// Going from 1 <-> 0 items, hide or show edit/delete
-		invalidateOptionsMenu();
+	public void onTimeZoneChanged() {
+		mPages.reload();
+	}
+
+	private void jumpToSearchResult(Cursor pages) {
+		if (mPendingJumpId == -1 || pages == null) return;
+		int idColumn = pages.getColumnIndexOrThrow(BaseColumns._ID);
+		for (int i = 0; i < pages.getCount(); i++) {
+			if (pages.moveToPosition(i) && pages.getLong(idColumn) == mPendingJumpId) {
+				mPendingJumpId = -1;
+				mPager.setCurrentItem(i, false);
+				// The pager doesn't call back if it was already at i, but the pages around it may differ
+				mPages.onPositionChanged(i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs searches off the main thread, then jumps the pager to the best match once the pages
+	 * holding it have loaded.
+	 */
+	private class SearchHandler extends AsyncQueryHandler {
+
+		SearchHandler() {
+			super(getContentResolver());
+		}
+
+		void search(String query) {
+			cancelOperation(0);
+			startQuery(0, query, TickTockProvider.searchUri.buildUpon()
+					.appendQueryParameter(TickTockProvider.PARAM_QUERY, query)
+					.appendQueryParameter(TickTockProvider.PARAM_LIMIT, "1").build(),
+					new String[]{BaseColumns._ID, TickTockProvider.COLUMN_NEXT_OCCURRENCE}, null, null, null);
+		}
+
+		@Override
+		protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+			try {
+				if (cursor == null || !cursor.moveToFirst()) {
+					Toast.makeText(TickTockActivity.this, getString(R.string.no_search_results, cookie),
+							Toast.LENGTH_SHORT).show();
+					return;
+				}
+				mPendingJumpId = cursor.getLong(0);
+				mPages.jumpTo(cursor.getLong(1), mPendingJumpId);
+				// If it was already loaded, jump straight there
+				jumpToSearchResult(mPagerAdapter.getCursor());
+			} finally {
+				if (cursor != null) cursor.close();
+			}
+		}
 	}
 
 }
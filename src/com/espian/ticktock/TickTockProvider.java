@@ -17,14 +17,41 @@
 package com.espian.ticktock;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.provider.BaseColumns;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Author: Alex Curran
@@ -38,58 +65,1035 @@ public class TickTockProvider extends ContentProvider {
 	static final String ENTRY_SINGLE = "vnd.android.cursor.item/ticktock";
 	static final String ENTRY_MULTIPLE = "vnd.android.cursor.dir/ticktock";
 
-	static final Uri countdownUri = Uri.parse("content://com.espian.ticktock/entry");
+	static final String AUTHORITY = "com.espian.ticktock";
+	static final Uri countdownUri = Uri.parse("content://" + AUTHORITY + "/entry");
+	/**
+	 * Full-text search over the labels. Put the search text in the {@link #PARAM_QUERY} parameter;
+	 * every word in it is matched as a prefix.
+	 */
+	static final Uri searchUri = Uri.parse("content://" + AUTHORITY + "/search");
+	/**
+	 * Open for reading to stream out every countdown, in {@link CountdownTransfer}'s format
+	 */
+	static final Uri exportUri = Uri.parse("content://" + AUTHORITY + "/export");
+	/**
+	 * Open for writing to stream in countdowns written to {@link #exportUri}. They're added to
+	 * the existing ones.
+	 */
+	static final Uri importUri = Uri.parse("content://" + AUTHORITY + "/import");
+
+	private static final int MATCH_ENTRIES = 1;
+	private static final int MATCH_ENTRY_ID = 2;
+	private static final int MATCH_SEARCH = 3;
+	private static final int MATCH_EXPORT = 4;
+	private static final int MATCH_IMPORT = 5;
+
+	private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+	static {
+		sUriMatcher.addURI(AUTHORITY, "entry", MATCH_ENTRIES);
+		sUriMatcher.addURI(AUTHORITY, "entry/#", MATCH_ENTRY_ID);
+		sUriMatcher.addURI(AUTHORITY, "search", MATCH_SEARCH);
+		sUriMatcher.addURI(AUTHORITY, "export", MATCH_EXPORT);
+		sUriMatcher.addURI(AUTHORITY, "import", MATCH_IMPORT);
+	}
 
 	public static final String TABLE_COUNTDOWNS = "countdowns";
+	static final String TABLE_SEARCH = "countdowns_fts";
+
+	public static final String COLUMN_LABEL = "label";
+	/**
+	 * The countdown's date, as days since 1970-01-01. For a repeating countdown, this is the
+	 * first occurrence.
+	 */
+	public static final String COLUMN_EPOCH_DAY = "epoch_day";
+	/**
+	 * Optional: the instant the date was picked at, in milliseconds since the epoch
+	 */
+	public static final String COLUMN_EPOCH_MILLIS = "epoch_millis";
+	/**
+	 * How many days before each occurrence to post a notification, or null for never. Stored as
+	 * text, as the column always has been.
+	 */
+	public static final String COLUMN_NOTIFY = "notify";
+	/**
+	 * The epoch day the countdown's next notification is due on, or null if it has none to come.
+	 * Kept up to date by the provider and moved on by {@link NotificationScheduler} as each one
+	 * is posted. Indexed, so the earliest is one lookup.
+	 */
+	public static final String COLUMN_NOTIFY_DAY = "notify_day";
+	/**
+	 * The epoch day the countdown's last notification was posted on, or null if none has been.
+	 * The next notify day is always after it, so the same notification isn't posted twice.
+	 */
+	public static final String COLUMN_NOTIFIED_DAY = "notified_day";
+	/**
+	 * How the countdown repeats, one of the {@link Recurrence} constants
+	 */
+	public static final String COLUMN_RECURRENCE = "recurrence";
+	/**
+	 * The epoch day the countdown next happens on: its date if it doesn't repeat, otherwise the
+	 * first occurrence that hasn't passed. Kept up to date by the provider, and indexed, so sort
+	 * and filter on this.
+	 */
+	public static final String COLUMN_NEXT_OCCURRENCE = "next_occurrence";
+	/**
+	 * Not stored: worked out in the query as the days from {@link #PARAM_TODAY} (or, without
+	 * that, today) to the next occurrence. Sort on next_occurrence instead if you want the index used.
+	 */
+	public static final String COLUMN_DAYS_REMAINING = "days_remaining";
+
+	/**
+	 * Both the countdowns and search tables have a label column, so search results have to be qualified
+	 */
+	private static final Map<String, String> sSearchProjection = new HashMap<String, String>();
+
+	static {
+		for (String column : new String[]{BaseColumns._ID, COLUMN_LABEL, COLUMN_EPOCH_DAY, COLUMN_EPOCH_MILLIS,
+				COLUMN_NOTIFY, COLUMN_RECURRENCE, COLUMN_NEXT_OCCURRENCE}) {
+			sSearchProjection.put(column, TABLE_COUNTDOWNS + "." + column + " AS " + column);
+		}
+	}
+
+	/**
+	 * Query parameters for reading the countdowns a page at a time. Pages are keyed on
+	 * (next_occurrence, _id), so each one is an index range scan rather than an OFFSET that has to
+	 * step over every earlier row.
+	 */
+	static final String PARAM_LIMIT = "limit";
+	static final String PARAM_AFTER_DAY = "after_day";
+	static final String PARAM_AFTER_ID = "after_id";
+	static final String PARAM_THROUGH_DAY = "through_day";
+	static final String PARAM_THROUGH_ID = "through_id";
+	/**
+	 * With a limit, take the rows at the end of the key range rather than the start. They come
+	 * back in descending key order.
+	 */
+	static final String PARAM_FROM_END = "from_end";
+
+	/**
+	 * The epoch day that {@link #COLUMN_DAYS_REMAINING} counts from
+	 */
+	static final String PARAM_TODAY = "today";
+
+	static final String PARAM_QUERY = "q";
+	private static final String DEFAULT_SEARCH_LIMIT = "50";
+
+	/**
+	 * The order the countdowns are paged in, soonest first, which the next_occurrence index can
+	 * satisfy directly
+	 */
+	static final String KEY_ORDER = COLUMN_NEXT_OCCURRENCE + " ASC, " + BaseColumns._ID + " ASC";
+	private static final String KEY_ORDER_DESCENDING = COLUMN_NEXT_OCCURRENCE + " DESC, " + BaseColumns._ID + " DESC";
+
+	static final int DATABASE_VERSION = 6;
+
+	/**
+	 * For {@link android.content.ContentResolver#call}: re-arm the notification alarm
+	 */
+	static final String METHOD_SCHEDULE_NOTIFICATIONS = "schedule_notifications";
+
+	/**
+	 * For {@link android.content.ContentResolver#call}: move repeating countdowns that have passed
+	 * on to their next occurrence now, rather than on the next read. Observers are only notified
+	 * if any were.
+	 */
+	static final String METHOD_ADVANCE_OCCURRENCES = "advance_occurrences";
+
+	/**
+	 * The next notify day worked out from the stored columns. Anything in notify that isn't a
+	 * number of days means no notification.
+	 */
+	private static final String NOTIFY_DAY_SQL = "CASE WHEN " + COLUMN_NOTIFY + " GLOB '[0-9]*' THEN " +
+			COLUMN_NEXT_OCCURRENCE + "-" + COLUMN_NOTIFY + " END";
+
+	/**
+	 * What's read to work out a countdown's next notify day, with {@link #nextNotifyDay(Cursor, long)}
+	 */
+	private static final String[] NOTIFY_COLUMNS = new String[]{
+			BaseColumns._ID, COLUMN_EPOCH_DAY, COLUMN_RECURRENCE, COLUMN_NOTIFY, COLUMN_NOTIFIED_DAY
+	};
+
+	private static final String TAG = "TickTockProvider";
+	private static final int ROW_CACHE_SIZE = 128;
+	private static final long ALL_ROWS = -1;
+	private static final int IMPORT_BATCH_SIZE = 500;
+
+	/**
+	 * Told once a write has committed and observers have been notified, for the work it causes
+	 * outside the database
+	 */
+	interface ChangeListener {
+
+		ChangeListener NONE = new ChangeListener() {
+			@Override
+			public void onCountdownsChanged() {
+			}
+		};
+
+		void onCountdownsChanged();
+
+	}
 
 	DatabaseHelper dbHelper;
+	private CountdownStatements mStatements;
+	private final CountdownCache mRowCache = new CountdownCache(ROW_CACHE_SIZE);
+	private final ProviderStats mStats = new ProviderStats();
+	private NotificationScheduler mNotifications;
+	private volatile ChangeListener mChangeListener = ChangeListener.NONE;
+
+	/**
+	 * The ids written by the batch being applied on this thread, or null if there isn't one. A
+	 * reader could re-cache one of those rows before the batch commits, so they're invalidated
+	 * again afterwards.
+	 */
+	private final ThreadLocal<List<Long>> mBatchWrites = new ThreadLocal<List<Long>>();
+
+	/**
+	 * The epoch day repeating countdowns' next occurrences have been brought up to
+	 */
+	private volatile long mAdvancedThrough = Long.MIN_VALUE;
+
+	/**
+	 * Attached to the outermost transaction on each thread, so each commit that reaches the disk
+	 * is counted once
+	 */
+	private final SQLiteTransactionListener mCommitCounter = new SQLiteTransactionListener() {
+		@Override
+		public void onBegin() {
+		}
+
+		@Override
+		public void onCommit() {
+			mStats.recordCommit();
+		}
+
+		@Override
+		public void onRollback() {
+		}
+	};
 
 	@Override
 	public boolean onCreate() {
-		dbHelper = new DatabaseHelper(getContext(), 1);
+		dbHelper = new DatabaseHelper(getContext(), DATABASE_VERSION);
+		mNotifications = new NotificationScheduler(getContext(), Clock.SYSTEM);
+		mChangeListener = new ChangeListener() {
+			@Override
+			public void onCountdownsChanged() {
+				// Any write can add, move or remove the earliest notification
+				scheduleNotifications();
+				CountdownWidget.refresh(getContext());
+			}
+		};
 		return true;
 	}
 
+	/**
+	 * Replaces what's told about writes. Re-arming the alarm and redrawing the widget need system
+	 * services that a ProviderTestCase2's isolated context doesn't have, so tests set
+	 * {@link ChangeListener#NONE}.
+	 */
+	void setChangeListener(ChangeListener listener) {
+		mChangeListener = listener;
+	}
+
 	@Override
-	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-		if (uri.equals(countdownUri)) {
-			SQLiteDatabase database = dbHelper.getWritableDatabase();
-			return database.query(TABLE_COUNTDOWNS, projection, selection, selectionArgs, null, null, sortOrder);
+	public Bundle call(String method, String arg, Bundle extras) {
+		if (METHOD_SCHEDULE_NOTIFICATIONS.equals(method)) {
+			scheduleNotifications();
+		} else if (METHOD_ADVANCE_OCCURRENCES.equals(method)) {
+			long today = DayMath.today();
+			if (today > mAdvancedThrough) advanceOccurrences(today);
 		}
 		return null;
 	}
 
+	/**
+	 * Arms the alarm for the earliest notification. MIN over the notify_day index only reads the
+	 * first entry.
+	 */
+	private void scheduleNotifications() {
+		Cursor earliest = dbHelper.getReadableDatabase().rawQuery("SELECT MIN(" + COLUMN_NOTIFY_DAY + ") FROM " +
+				TABLE_COUNTDOWNS + ";", null);
+		try {
+			Long notifyDay = null;
+			if (earliest.moveToFirst() && !earliest.isNull(0)) notifyDay = earliest.getLong(0);
+			mNotifications.arm(notifyDay);
+		} finally {
+			earliest.close();
+		}
+	}
+
+	/**
+	 * Begins a transaction on the database, counting it in the stats if it isn't nested in
+	 * another one
+	 */
+	private void beginTransaction(SQLiteDatabase database) {
+		database.beginTransactionWithListener(database.inTransaction() ? null : mCommitCounter);
+	}
+
+	private synchronized CountdownStatements getStatements() {
+		if (mStatements == null) mStatements = new CountdownStatements(dbHelper.getWritableDatabase(), mCommitCounter);
+		return mStatements;
+	}
+
+	/**
+	 * @return the timings of this provider's operations so far
+	 */
+	ProviderStats getStats() {
+		return mStats;
+	}
+
+	/**
+	 * Prints the operation timings and cache counts, for
+	 * {@code adb shell dumpsys activity provider com.espian.ticktock}. Not marked as an override,
+	 * as ContentProvider only gained dump in API 18.
+	 */
+	public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		mStats.dump(writer);
+		writer.print("Row cache: hits=");
+		writer.print(mRowCache.hitCount());
+		writer.print(" misses=");
+		writer.println(mRowCache.missCount());
+	}
+
+	private static int statsUriType(int match) {
+		switch (match) {
+
+			case MATCH_ENTRIES:
+				return ProviderStats.URI_ENTRIES;
+
+			case MATCH_ENTRY_ID:
+				return ProviderStats.URI_ENTRY;
+
+			case MATCH_SEARCH:
+				return ProviderStats.URI_SEARCH;
+
+			case MATCH_EXPORT:
+			case MATCH_IMPORT:
+				return ProviderStats.URI_FILE;
+
+		}
+		return ProviderStats.URI_OTHER;
+	}
+
+	/**
+	 * @return the cache that single countdowns are read through, for its hit and miss counts
+	 */
+	CountdownCache getRowCache() {
+		return mRowCache;
+	}
+
+	/**
+	 * @return a uri pointing at the single countdown with the given id
+	 */
+	static Uri countdownUri(long id) {
+		return ContentUris.withAppendedId(countdownUri, id);
+	}
+
+	/**
+	 * @return a selection matching all the given ids, for deleting or updating them in one statement
+	 */
+	static String whereIdIn(long[] ids) {
+		StringBuilder where = new StringBuilder(BaseColumns._ID).append(" IN (");
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) where.append(',');
+			where.append(ids[i]);
+		}
+		return where.append(')').toString();
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		long start = System.nanoTime();
+		int match = sUriMatcher.match(uri);
+		Cursor cursor = null;
+		try {
+			return cursor = doQuery(match, uri, projection, selection, selectionArgs, sortOrder);
+		} finally {
+			// Filling the cursor's first window for the count is part of the cost of the query,
+			// and a CursorLoader would count it straight away anyway
+			mStats.record(ProviderStats.OP_QUERY, statsUriType(match), start, cursor == null ? 0 : cursor.getCount());
+		}
+	}
+
+	private Cursor doQuery(int match, Uri uri, String[] projection, String selection, String[] selectionArgs,
+	                       String sortOrder) {
+		long realToday = DayMath.today();
+		if (realToday > mAdvancedThrough) advanceOccurrences(realToday);
+		String todayParam = uri.getQueryParameter(PARAM_TODAY);
+		long today = todayParam == null ? realToday : Long.parseLong(todayParam);
+		Cursor cursor;
+		switch (match) {
+
+			case MATCH_ENTRIES:
+				String limit = uri.getQueryParameter(PARAM_LIMIT);
+				if (limit != null || uri.getQueryParameter(PARAM_AFTER_DAY) != null
+						|| uri.getQueryParameter(PARAM_THROUGH_DAY) != null) {
+					selection = DatabaseUtils.concatenateWhere(selection, whereKeyRange(uri));
+					sortOrder = uri.getBooleanQueryParameter(PARAM_FROM_END, false) ? KEY_ORDER_DESCENDING : KEY_ORDER;
+					if (limit != null) limit = String.valueOf(Integer.parseInt(limit));
+				}
+				cursor = dbHelper.getReadableDatabase().query(TABLE_COUNTDOWNS, withDaysRemaining(projection, today),
+						selection, selectionArgs, null, null, sortOrder, limit);
+				break;
+
+			case MATCH_ENTRY_ID:
+				if (selection == null && CountdownCache.canProject(projection)) {
+					cursor = CountdownCache.toCursor(projection, readRow(ContentUris.parseId(uri)), today);
+				} else {
+					cursor = dbHelper.getReadableDatabase().query(TABLE_COUNTDOWNS, withDaysRemaining(projection, today),
+							whereId(uri, selection), selectionArgs, null, null, sortOrder);
+				}
+				break;
+
+			case MATCH_SEARCH:
+				cursor = search(uri, withDaysRemaining(projection, today));
+				// Results change whenever the countdowns do
+				cursor.setNotificationUri(getContext().getContentResolver(), countdownUri);
+				return cursor;
+
+			default:
+				return null;
+
+		}
+		// Any loader holding this cursor will then reload itself after a write
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+		return cursor;
+	}
+
+	/**
+	 * @return the projection with days remaining swapped for the SQL that works it out. A null
+	 * projection gets every stored column and days remaining.
+	 */
+	private static String[] withDaysRemaining(String[] projection, long today) {
+		if (projection == null) projection = CountdownCache.DEFAULT_PROJECTION;
+		String[] expanded = new String[projection.length];
+		for (int i = 0; i < projection.length; i++) {
+			if (COLUMN_DAYS_REMAINING.equals(projection[i])) {
+				expanded[i] = "(" + COLUMN_NEXT_OCCURRENCE + "-" + today + ") AS " + COLUMN_DAYS_REMAINING;
+			} else {
+				expanded[i] = projection[i];
+			}
+		}
+		return expanded;
+	}
+
+	/**
+	 * @return the countdown's row from the cache, or read from the database (and cached) if it
+	 * isn't there. Null if there's no such countdown.
+	 */
+	private Object[] readRow(long id) {
+		Object[] row = mRowCache.get(id);
+		if (row != null) return row;
+
+		long generation = mRowCache.generation();
+		Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_COUNTDOWNS, CountdownCache.COLUMNS,
+				BaseColumns._ID + "=" + id, null, null, null, null);
+		try {
+			if (!cursor.moveToFirst()) return null;
+			row = CountdownCache.readRow(cursor);
+		} finally {
+			cursor.close();
+		}
+		mRowCache.put(id, row, generation);
+		return row;
+	}
+
 	@Override
 	public String getType(Uri uri) {
+		switch (sUriMatcher.match(uri)) {
+
+			case MATCH_ENTRIES:
+			case MATCH_SEARCH:
+				return ENTRY_MULTIPLE;
+
+			case MATCH_ENTRY_ID:
+				return ENTRY_SINGLE;
+
+			case MATCH_EXPORT:
+			case MATCH_IMPORT:
+				return CountdownTransfer.MIME_TYPE;
+
+		}
 		return null;
 	}
 
+	@Override
+	public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+		switch (sUriMatcher.match(uri)) {
+
+			case MATCH_EXPORT:
+				if (!"r".equals(mode)) throw new FileNotFoundException("Export can only be read");
+				return openPipeHelper(uri, CountdownTransfer.MIME_TYPE, null, null, new ExportWriter());
+
+			case MATCH_IMPORT:
+				if (!mode.startsWith("w")) throw new FileNotFoundException("Import can only be written");
+				try {
+					ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+					AsyncTask.THREAD_POOL_EXECUTOR.execute(new Importer(pipe[0]));
+					return pipe[1];
+				} catch (IOException e) {
+					throw new FileNotFoundException("Couldn't open import pipe: " + e.getMessage());
+				}
+
+		}
+		throw new FileNotFoundException("No file at " + uri);
+	}
+
+	/**
+	 * Streams the countdowns out of a forward-only cursor, so only one cursor window of rows is
+	 * ever held in memory
+	 */
+	private class ExportWriter implements PipeDataWriter<Object> {
+
+		@Override
+		public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, Object args) {
+			long start = System.nanoTime();
+			int rows = 0;
+			Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_COUNTDOWNS, CountdownTransfer.COLUMNS,
+					null, null, null, null, BaseColumns._ID);
+			FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+			try {
+				rows = CountdownTransfer.write(cursor, out);
+			} catch (IOException e) {
+				Log.w(TAG, "Export failed", e);
+			} finally {
+				cursor.close();
+				mStats.record(ProviderStats.OP_OPEN_FILE, ProviderStats.URI_FILE, start, rows);
+				try {
+					out.close();
+				} catch (IOException e) {
+					// Nothing left to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads countdowns from the pipe into a batch, then writes the batch in one transaction. The
+	 * transaction is only opened once the batch is in memory, so a slow writer on the other end of
+	 * the pipe never holds up anyone else's writes.
+	 */
+	private class Importer implements Runnable, CountdownTransfer.RowSink {
+
+		private final ParcelFileDescriptor mInput;
+		private final SQLiteDatabase mDatabase;
+		private final List<ContentValues> mBatch = new ArrayList<ContentValues>(IMPORT_BATCH_SIZE);
+		private int mImported;
+
+		Importer(ParcelFileDescriptor input) {
+			mInput = input;
+			mDatabase = dbHelper.getWritableDatabase();
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(mInput);
+			try {
+				CountdownTransfer.read(in, this);
+				writeBatch();
+			} catch (IOException e) {
+				// Anything still in the batch here is from a part-read stream, so is dropped
+				Log.w(TAG, "Import failed after " + mImported + " countdowns", e);
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Nothing left to do
+				}
+				if (mImported > 0) notifyChange(countdownUri);
+				mStats.record(ProviderStats.OP_OPEN_FILE, ProviderStats.URI_FILE, start, mImported);
+			}
+		}
+
+		@Override
+		public void onRow(ContentValues row) {
+			mBatch.add(row);
+			if (mBatch.size() == IMPORT_BATCH_SIZE) writeBatch();
+		}
+
+		private void writeBatch() {
+			if (mBatch.isEmpty()) return;
+			int inserted = 0;
+			beginTransaction(mDatabase);
+			try {
+				for (ContentValues row : mBatch) {
+					if (ContentUris.parseId(insertCountdown(row)) != -1) inserted++;
+				}
+				mDatabase.setTransactionSuccessful();
+			} finally {
+				mDatabase.endTransaction();
+				mBatch.clear();
+			}
+			mImported += inserted;
+		}
+	}
+
 	@Override
 	public Uri insert(Uri uri, ContentValues values) {
-		if (uri.equals(countdownUri)) {
-			SQLiteDatabase database = dbHelper.getWritableDatabase();
-			long id = database.insert(TABLE_COUNTDOWNS, "label", values);
-			return ContentUris.withAppendedId(countdownUri, id);
+		long start = System.nanoTime();
+		int match = sUriMatcher.match(uri);
+		Uri result = null;
+		try {
+			return result = doInsert(match, values);
+		} finally {
+			mStats.record(ProviderStats.OP_INSERT, statsUriType(match), start,
+					result == null || ContentUris.parseId(result) == -1 ? 0 : 1);
+		}
+	}
+
+	private Uri doInsert(int match, ContentValues values) {
+		if (match == MATCH_ENTRIES) {
+			Uri result = insertCountdown(values);
+			if (ContentUris.parseId(result) != -1) notifyChange(result);
+			return result;
 		}
 		return null;
 	}
 
+	private Uri insertCountdown(ContentValues values) {
+		Long epochDay = values.getAsLong(COLUMN_EPOCH_DAY);
+		if (epochDay != null && !values.containsKey(COLUMN_NEXT_OCCURRENCE)) {
+			Integer rule = values.getAsInteger(COLUMN_RECURRENCE);
+			values.put(COLUMN_NEXT_OCCURRENCE, Recurrence.nextOccurrence(epochDay,
+					rule == null ? Recurrence.NONE : rule, DayMath.today()));
+		}
+		Integer daysBefore = NotificationScheduler.daysBefore(values.getAsString(COLUMN_NOTIFY));
+		if (daysBefore != null && epochDay != null && !values.containsKey(COLUMN_NOTIFY_DAY)) {
+			Integer rule = values.getAsInteger(COLUMN_RECURRENCE);
+			values.put(COLUMN_NOTIFY_DAY, NotificationScheduler.nextNotifyDay(epochDay,
+					rule == null ? Recurrence.NONE : rule, daysBefore, values.getAsLong(COLUMN_NOTIFIED_DAY),
+					DayMath.today()));
+		}
+		long id = getStatements().insert(values);
+		// Nothing should be cached for a new id, but a deleted row's id can be reused
+		if (id != -1) invalidateRow(id);
+		return countdownUri(id);
+	}
+
+	/**
+	 * Inserts all the values in one transaction, rather than one transaction (and one sync to
+	 * disk) per row.
+	 */
 	@Override
-	public int delete(Uri uri, String selection, String[] selectionArgs) {
-		if (uri.equals(countdownUri)) {
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		long start = System.nanoTime();
+		int match = sUriMatcher.match(uri);
+		int inserted = 0;
+		try {
+			return inserted = doBulkInsert(match, values);
+		} finally {
+			mStats.record(ProviderStats.OP_BULK_INSERT, statsUriType(match), start, inserted);
+		}
+	}
+
+	private int doBulkInsert(int match, ContentValues[] values) {
+		if (match == MATCH_ENTRIES) {
 			SQLiteDatabase database = dbHelper.getWritableDatabase();
-			return database.delete(TABLE_COUNTDOWNS, selection, selectionArgs);
+			int inserted = 0;
+			beginTransaction(database);
+			try {
+				for (ContentValues value : values) {
+					if (ContentUris.parseId(insertCountdown(value)) != -1) inserted++;
+				}
+				database.setTransactionSuccessful();
+			} finally {
+				database.endTransaction();
+			}
+			if (inserted > 0) notifyChange(countdownUri);
+			return inserted;
 		}
 		return 0;
 	}
 
+	/**
+	 * Applies the whole batch in one transaction. If any operation fails, none of them are committed.
+	 * Observers are told about the change once, when the batch has committed.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		long start = System.nanoTime();
+		SQLiteDatabase database = dbHelper.getWritableDatabase();
+		ContentProviderResult[] results = null;
+		List<Long> written = new ArrayList<Long>();
+		mBatchWrites.set(written);
+		beginTransaction(database);
+		try {
+			results = super.applyBatch(operations);
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+			mBatchWrites.set(null);
+			mStats.record(ProviderStats.OP_APPLY_BATCH, ProviderStats.URI_ENTRIES, start,
+					results == null ? 0 : results.length);
+			for (Long id : written) {
+				if (id == ALL_ROWS) invalidateAllRows();
+				else invalidateRow(id);
+			}
+		}
+		notifyChange(countdownUri);
+		return results;
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		long start = System.nanoTime();
+		int match = sUriMatcher.match(uri);
+		int deleted = 0;
+		try {
+			return deleted = doDelete(match, uri, selection, selectionArgs);
+		} finally {
+			mStats.record(ProviderStats.OP_DELETE, statsUriType(match), start, deleted);
+		}
+	}
+
+	private int doDelete(int match, Uri uri, String selection, String[] selectionArgs) {
+		int deleted;
+		switch (match) {
+
+			case MATCH_ENTRIES:
+				deleted = writeSelection(null, selection, selectionArgs);
+				break;
+
+			case MATCH_ENTRY_ID:
+				long id = ContentUris.parseId(uri);
+				if (selection == null) {
+					deleted = getStatements().deleteById(id);
+				} else {
+					deleted = dbHelper.getWritableDatabase().delete(TABLE_COUNTDOWNS, whereId(uri, selection), selectionArgs);
+				}
+				invalidateRow(id);
+				break;
+
+			default:
+				return 0;
+
+		}
+		if (deleted > 0) notifyChange(uri);
+		return deleted;
+	}
+
 	@Override
 	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-		if (uri.equals(countdownUri)) {
-			SQLiteDatabase database = dbHelper.getWritableDatabase();
-			return database.update(TABLE_COUNTDOWNS, values, selection, selectionArgs);
+		long start = System.nanoTime();
+		int match = sUriMatcher.match(uri);
+		int updated = 0;
+		try {
+			return updated = doUpdate(match, uri, values, selection, selectionArgs);
+		} finally {
+			mStats.record(ProviderStats.OP_UPDATE, statsUriType(match), start, updated);
 		}
-		return 0;
+	}
+
+	private int doUpdate(int match, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		int updated;
+		switch (match) {
+
+			case MATCH_ENTRIES:
+				updated = writeSelection(values, selection, selectionArgs);
+				break;
+
+			case MATCH_ENTRY_ID:
+				long id = ContentUris.parseId(uri);
+				boolean notificationChanged = changesNotification(values, readRow(id));
+				boolean occurrenceChanged = prepareOccurrence(values);
+				if (selection == null) {
+					updated = getStatements().updateById(id, values);
+				} else {
+					updated = dbHelper.getWritableDatabase().update(TABLE_COUNTDOWNS, values,
+							whereId(uri, selection), selectionArgs);
+				}
+				if (occurrenceChanged && updated > 0) resetOccurrences(BaseColumns._ID + "=" + id);
+				if (notificationChanged && updated > 0) resetNotifications(BaseColumns._ID + "=" + id);
+				invalidateRow(id);
+				break;
+
+			default:
+				return 0;
+
+		}
+		if (updated > 0) notifyChange(uri);
+		return updated;
+	}
+
+	/**
+	 * Work out the next occurrence for an update that sets both the date and the recurrence.
+	 *
+	 * @return true if it sets only one of them, so the next occurrence has to be worked out from
+	 * the stored rows with {@link #resetOccurrences(String)} after the update
+	 */
+	private static boolean prepareOccurrence(ContentValues values) {
+		if (values.containsKey(COLUMN_NEXT_OCCURRENCE)) return false;
+		Long epochDay = values.getAsLong(COLUMN_EPOCH_DAY);
+		Integer rule = values.getAsInteger(COLUMN_RECURRENCE);
+		if (epochDay != null && rule != null) {
+			values.put(COLUMN_NEXT_OCCURRENCE, Recurrence.nextOccurrence(epochDay, rule, DayMath.today()));
+			return false;
+		}
+		return epochDay != null || rule != null;
+	}
+
+	/**
+	 * @return true if the update could move the countdown's next notification, and doesn't set it itself
+	 */
+	private static boolean changesNotification(ContentValues values) {
+		return !values.containsKey(COLUMN_NOTIFY_DAY) && (values.containsKey(COLUMN_NOTIFY)
+				|| values.containsKey(COLUMN_EPOCH_DAY) || values.containsKey(COLUMN_RECURRENCE)
+				|| values.containsKey(COLUMN_NEXT_OCCURRENCE));
+	}
+
+	/**
+	 * @return true if the update changes when the stored countdown notifies. Saving a countdown
+	 * sends its recurrence and notice whether they've changed or not, so a rename mustn't count.
+	 */
+	private static boolean changesNotification(ContentValues values, Object[] row) {
+		if (!changesNotification(values)) return false;
+		return row == null || changes(values, row, COLUMN_EPOCH_DAY) || changes(values, row, COLUMN_RECURRENCE)
+				|| changes(values, row, COLUMN_NOTIFY) || changes(values, row, COLUMN_NEXT_OCCURRENCE);
+	}
+
+	/**
+	 * @return true if the values set the column to something other than the cached row holds
+	 */
+	private static boolean changes(ContentValues values, Object[] row, String column) {
+		if (!values.containsKey(column)) return false;
+		Object stored = row[CountdownCache.indexOf(column)];
+		String value = values.getAsString(column);
+		return stored == null ? value != null : !stored.toString().equals(value);
+	}
+
+	/**
+	 * Work out the matching rows' next notifications again, each the first after the last one
+	 * it posted
+	 */
+	private void resetNotifications(String where) {
+		SQLiteDatabase database = dbHelper.getWritableDatabase();
+		long today = DayMath.today();
+		beginTransaction(database);
+		try {
+			Cursor rows = database.query(TABLE_COUNTDOWNS, NOTIFY_COLUMNS, where, null, null, null, null);
+			SQLiteStatement update = database.compileStatement("UPDATE " + TABLE_COUNTDOWNS + " SET " +
+					COLUMN_NOTIFY_DAY + "=? WHERE " + BaseColumns._ID + "=?;");
+			try {
+				while (rows.moveToNext()) {
+					bindNullable(update, 1, nextNotifyDay(rows, today));
+					update.bindLong(2, rows.getLong(0));
+					update.executeUpdateDelete();
+				}
+			} finally {
+				rows.close();
+				update.close();
+			}
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+	}
+
+	/**
+	 * @param row a row read with {@link #NOTIFY_COLUMNS}
+	 * @return its next notify day, or null if it has none to come
+	 */
+	private static Long nextNotifyDay(Cursor row, long today) {
+		Integer daysBefore = NotificationScheduler.daysBefore(row.getString(3));
+		if (daysBefore == null) return null;
+		return NotificationScheduler.nextNotifyDay(row.getLong(1), row.getInt(2), daysBefore,
+				row.isNull(4) ? null : row.getLong(4), today);
+	}
+
+	private static void bindNullable(SQLiteStatement statement, int index, Long value) {
+		if (value == null) statement.bindNull(index);
+		else statement.bindLong(index, value);
+	}
+
+	/**
+	 * Start the matching rows' next occurrences again from their dates, then bring the repeating
+	 * ones forward
+	 */
+	private void resetOccurrences(String where) {
+		dbHelper.getWritableDatabase().execSQL("UPDATE " + TABLE_COUNTDOWNS + " SET " + COLUMN_NEXT_OCCURRENCE +
+				"=" + COLUMN_EPOCH_DAY + " WHERE " + where + ";");
+		advanceOccurrences(DayMath.today());
+	}
+
+	/**
+	 * Move the next occurrence of every repeating countdown that has passed on to its first
+	 * occurrence on or after today. Only rows that need it are read, through the index on
+	 * (recurrence, next_occurrence), so this is cheap enough to run on the first read of each day.
+	 */
+	private void advanceOccurrences(long today) {
+		SQLiteDatabase database = dbHelper.getWritableDatabase();
+		List<Long> advanced = new ArrayList<Long>();
+		beginTransaction(database);
+		try {
+			Cursor passed = database.query(TABLE_COUNTDOWNS, NOTIFY_COLUMNS,
+					COLUMN_RECURRENCE + " IN (" + Recurrence.WEEKLY + "," + Recurrence.MONTHLY + "," +
+							Recurrence.YEARLY + ") AND " + COLUMN_NEXT_OCCURRENCE + "<" + today,
+					null, null, null, null);
+			// The notify day is worked out again by the same rule as after posting, so one that's
+			// already been posted for the new occurrence isn't due again
+			SQLiteStatement update = database.compileStatement("UPDATE " + TABLE_COUNTDOWNS + " SET " +
+					COLUMN_NEXT_OCCURRENCE + "=?, " + COLUMN_NOTIFY_DAY + "=? WHERE " + BaseColumns._ID + "=?;");
+			try {
+				while (passed.moveToNext()) {
+					update.bindLong(1, Recurrence.nextOccurrence(passed.getLong(1), passed.getInt(2), today));
+					bindNullable(update, 2, nextNotifyDay(passed, today));
+					update.bindLong(3, passed.getLong(0));
+					update.executeUpdateDelete();
+					advanced.add(passed.getLong(0));
+				}
+			} finally {
+				passed.close();
+				update.close();
+			}
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+		mAdvancedThrough = today;
+		for (Long id : advanced) {
+			invalidateRow(id);
+		}
+		if (!advanced.isEmpty()) notifyChange(countdownUri);
+	}
+
+	/**
+	 * Update, or delete if values is null, the countdowns matching the selection. Only the rows it
+	 * touches are dropped from the cache, so they're found first in the same transaction.
+	 */
+	private int writeSelection(ContentValues values, String selection, String[] selectionArgs) {
+		SQLiteDatabase database = dbHelper.getWritableDatabase();
+		boolean notificationChanged = values != null && changesNotification(values);
+		boolean occurrenceChanged = values != null && prepareOccurrence(values);
+		if (selection == null) {
+			int written = values == null ? database.delete(TABLE_COUNTDOWNS, "1", null)
+					: database.update(TABLE_COUNTDOWNS, values, null, null);
+			if (occurrenceChanged) resetOccurrences("1");
+			if (notificationChanged) resetNotifications("1");
+			invalidateAllRows();
+			return written;
+		}
+
+		long[] ids;
+		int written;
+		beginTransaction(database);
+		try {
+			Cursor matches = database.query(TABLE_COUNTDOWNS, new String[]{BaseColumns._ID}, selection, selectionArgs,
+					null, null, null);
+			try {
+				ids = new long[matches.getCount()];
+				for (int i = 0; matches.moveToNext(); i++) {
+					ids[i] = matches.getLong(0);
+				}
+			} finally {
+				matches.close();
+			}
+			written = values == null ? database.delete(TABLE_COUNTDOWNS, selection, selectionArgs)
+					: database.update(TABLE_COUNTDOWNS, values, selection, selectionArgs);
+			if (occurrenceChanged && ids.length > 0) resetOccurrences(whereIdIn(ids));
+			if (notificationChanged && ids.length > 0) resetNotifications(whereIdIn(ids));
+			database.setTransactionSuccessful();
+		} finally {
+			database.endTransaction();
+		}
+		for (long id : ids) {
+			invalidateRow(id);
+		}
+		return written;
+	}
+
+	private void invalidateRow(long id) {
+		mRowCache.invalidate(id);
+		List<Long> batch = mBatchWrites.get();
+		if (batch != null) batch.add(id);
+	}
+
+	private void invalidateAllRows() {
+		mRowCache.invalidateAll();
+		List<Long> batch = mBatchWrites.get();
+		if (batch != null) batch.add(ALL_ROWS);
+	}
+
+	/**
+	 * Tell observers (and so any CursorLoaders) that the data under the uri has changed. Held back
+	 * while a batch is being applied, which notifies once at the end instead.
+	 */
+	private void notifyChange(Uri uri) {
+		if (mBatchWrites.get() == null) {
+			getContext().getContentResolver().notifyChange(uri, null);
+			mChangeListener.onCountdownsChanged();
+		}
+	}
+
+	/**
+	 * Matches every word of the query as a prefix through the FTS index. Labels starting with the
+	 * first word come first, then shorter labels (more of which was matched), then the soonest.
+	 */
+	private Cursor search(Uri uri, String[] projection) {
+		String query = uri.getQueryParameter(PARAM_QUERY);
+		String limit = uri.getQueryParameter(PARAM_LIMIT);
+		limit = limit == null ? DEFAULT_SEARCH_LIMIT : String.valueOf(Integer.parseInt(limit));
+
+		StringBuilder match = new StringBuilder();
+		String firstWord = null;
+		if (query != null) {
+			for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+				if (word.length() == 0) continue;
+				if (firstWord == null) firstWord = word;
+				if (match.length() > 0) match.append(' ');
+				match.append(word).append('*');
+			}
+		}
+
+		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+		builder.setTables(TABLE_COUNTDOWNS + " JOIN " + TABLE_SEARCH + " ON " +
+				TABLE_COUNTDOWNS + "." + BaseColumns._ID + "=" + TABLE_SEARCH + ".docid");
+		builder.setProjectionMap(sSearchProjection);
+		if (firstWord == null) {
+			// Nothing searchable, so nothing matches
+			builder.appendWhere("0");
+			return builder.query(dbHelper.getReadableDatabase(), projection, null, null, null, null, null, "0");
+		}
+		builder.appendWhere(TABLE_SEARCH + " MATCH ");
+		builder.appendWhereEscapeString(match.toString());
+		String rank = "(" + TABLE_COUNTDOWNS + "." + COLUMN_LABEL + " LIKE " +
+				DatabaseUtils.sqlEscapeString(firstWord + "%") + ") DESC, length(" +
+				TABLE_COUNTDOWNS + "." + COLUMN_LABEL + "), " + TABLE_COUNTDOWNS + "." + COLUMN_NEXT_OCCURRENCE;
+		return builder.query(dbHelper.getReadableDatabase(), projection, null, null, null, null, rank, limit);
+	}
+
+	/**
+	 * @return the where clause for the key range (after, through] named by the uri's parameters,
+	 * or null if it doesn't name one. The values are parsed as longs, so are safe to inline.
+	 */
+	private static String whereKeyRange(Uri uri) {
+		String where = null;
+		String afterDay = uri.getQueryParameter(PARAM_AFTER_DAY);
+		if (afterDay != null) {
+			long day = Long.parseLong(afterDay);
+			long id = Long.parseLong(uri.getQueryParameter(PARAM_AFTER_ID));
+			where = COLUMN_NEXT_OCCURRENCE + ">=" + day + " AND (" + COLUMN_NEXT_OCCURRENCE + ">" + day + " OR " +
+					BaseColumns._ID + ">" + id + ")";
+		}
+		String throughDay = uri.getQueryParameter(PARAM_THROUGH_DAY);
+		if (throughDay != null) {
+			long day = Long.parseLong(throughDay);
+			long id = Long.parseLong(uri.getQueryParameter(PARAM_THROUGH_ID));
+			where = DatabaseUtils.concatenateWhere(where, COLUMN_NEXT_OCCURRENCE + "<=" + day + " AND (" +
+					COLUMN_NEXT_OCCURRENCE + "<" + day + " OR " + BaseColumns._ID + "<=" + id + ")");
+		}
+		return where;
+	}
+
+	/**
+	 * The id is parsed by the matcher, so it's safe to inline - which lets SQLite go straight to
+	 * the rowid rather than binding and re-parsing an _id=? clause.
+	 */
+	private static String whereId(Uri uri, String selection) {
+		return DatabaseUtils.concatenateWhere(BaseColumns._ID + "=" + ContentUris.parseId(uri), selection);
 	}
 
 	private class DatabaseHelper extends SQLiteOpenHelper {
@@ -100,16 +1104,148 @@ public class TickTockProvider extends ContentProvider {
 
 		@Override
 		public void onCreate(SQLiteDatabase db) {
-			db.execSQL("CREATE TABLE countdowns (" +
+			createCountdowns(db);
+			createSearch(db);
+			addRecurrence(db);
+			addNotifyDay(db);
+			addNotifiedDay(db);
+		}
+
+		/**
+		 * Creates the table as it was in version 2; later versions alter it from there
+		 */
+		private void createCountdowns(SQLiteDatabase db) {
+			db.execSQL("CREATE TABLE " + TABLE_COUNTDOWNS + " (" +
 					BaseColumns._ID + " INTEGER PRIMARY KEY, " +
-					"label TEXT, " +
-					"date TEXT, " +
-					"notify TEXT);");
+					COLUMN_LABEL + " TEXT, " +
+					COLUMN_EPOCH_DAY + " INTEGER NOT NULL, " +
+					COLUMN_EPOCH_MILLIS + " INTEGER, " +
+					COLUMN_NOTIFY + " TEXT);");
+			db.execSQL("CREATE INDEX countdowns_epoch_day ON " + TABLE_COUNTDOWNS + " (" + COLUMN_EPOCH_DAY + ");");
+		}
+
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			super.onOpen(db);
+			// Write-ahead logging lets the UI's reads carry on alongside a writer, rather than
+			// queueing up behind its lock
+			if (!db.isReadOnly()) db.enableWriteAheadLogging();
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+			// SQLiteOpenHelper already runs this inside a single transaction
+			if (oldVersion < 2) upgradeToEpochDays(db);
+			if (oldVersion < 3) {
+				createSearch(db);
+				db.execSQL("INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_LABEL + ") SELECT " +
+						BaseColumns._ID + ", " + COLUMN_LABEL + " FROM " + TABLE_COUNTDOWNS + ";");
+			}
+			if (oldVersion < 4) addRecurrence(db);
+			if (oldVersion < 5) addNotifyDay(db);
+			if (oldVersion < 6) addNotifiedDay(db);
+		}
+
+		private void addNotifyDay(SQLiteDatabase db) {
+			db.execSQL("ALTER TABLE " + TABLE_COUNTDOWNS + " ADD COLUMN " + COLUMN_NOTIFY_DAY + " INTEGER;");
+			db.execSQL("UPDATE " + TABLE_COUNTDOWNS + " SET " + COLUMN_NOTIFY_DAY + "=" + NOTIFY_DAY_SQL + ";");
+			db.execSQL("CREATE INDEX countdowns_notify_day ON " + TABLE_COUNTDOWNS + " (" + COLUMN_NOTIFY_DAY + ");");
+		}
+
+		/**
+		 * Version 5 cleared a one-off countdown's notify day once it had posted, so that's taken
+		 * as posted. A pending notify day means everything before it has been dealt with.
+		 */
+		private void addNotifiedDay(SQLiteDatabase db) {
+			db.execSQL("ALTER TABLE " + TABLE_COUNTDOWNS + " ADD COLUMN " + COLUMN_NOTIFIED_DAY + " INTEGER;");
+			db.execSQL("UPDATE " + TABLE_COUNTDOWNS + " SET " + COLUMN_NOTIFIED_DAY + "=CASE WHEN " + COLUMN_NOTIFY +
+					" GLOB '[0-9]*' THEN coalesce(" + COLUMN_NOTIFY_DAY + "-1, " + COLUMN_NEXT_OCCURRENCE + "-" +
+					COLUMN_NOTIFY + ") END;");
+		}
+
+		/**
+		 * Nothing repeated before version 4, so every next occurrence starts as the date itself.
+		 * Passed ones of repeating countdowns are brought forward on the first read of each day.
+		 */
+		private void addRecurrence(SQLiteDatabase db) {
+			db.execSQL("ALTER TABLE " + TABLE_COUNTDOWNS + " ADD COLUMN " + COLUMN_RECURRENCE +
+					" INTEGER NOT NULL DEFAULT " + Recurrence.NONE + ";");
+			db.execSQL("ALTER TABLE " + TABLE_COUNTDOWNS + " ADD COLUMN " + COLUMN_NEXT_OCCURRENCE + " INTEGER;");
+			db.execSQL("UPDATE " + TABLE_COUNTDOWNS + " SET " + COLUMN_NEXT_OCCURRENCE + "=" + COLUMN_EPOCH_DAY + ";");
+			db.execSQL("CREATE INDEX countdowns_next_occurrence ON " + TABLE_COUNTDOWNS + " (" +
+					COLUMN_NEXT_OCCURRENCE + ");");
+			db.execSQL("CREATE INDEX countdowns_recurring ON " + TABLE_COUNTDOWNS + " (" + COLUMN_RECURRENCE + ", " +
+					COLUMN_NEXT_OCCURRENCE + ");");
+		}
+
+		/**
+		 * An FTS index of the labels, keyed by the countdown's id. Triggers keep it in step with
+		 * the countdowns table, so nothing else has to write to it.
+		 */
+		private void createSearch(SQLiteDatabase db) {
+			db.execSQL("CREATE VIRTUAL TABLE " + TABLE_SEARCH + " USING fts4(" + COLUMN_LABEL + ");");
+			db.execSQL("CREATE TRIGGER countdowns_fts_insert AFTER INSERT ON " + TABLE_COUNTDOWNS + " BEGIN " +
+					"INSERT INTO " + TABLE_SEARCH + " (docid, " + COLUMN_LABEL + ") VALUES (new." +
+					BaseColumns._ID + ", new." + COLUMN_LABEL + "); END;");
+			db.execSQL("CREATE TRIGGER countdowns_fts_update AFTER UPDATE OF " + COLUMN_LABEL + " ON " +
+					TABLE_COUNTDOWNS + " BEGIN " +
+					"UPDATE " + TABLE_SEARCH + " SET " + COLUMN_LABEL + "=new." + COLUMN_LABEL +
+					" WHERE docid=old." + BaseColumns._ID + "; END;");
+			db.execSQL("CREATE TRIGGER countdowns_fts_delete AFTER DELETE ON " + TABLE_COUNTDOWNS + " BEGIN " +
+					"DELETE FROM " + TABLE_SEARCH + " WHERE docid=old." + BaseColumns._ID + "; END;");
+		}
+
+		/**
+		 * Version 1 stored dates as DateFormat.LONG strings in whatever locale the device had at
+		 * the time. Rebuild the table with those parsed into epoch days.
+		 */
+		private void upgradeToEpochDays(SQLiteDatabase db) {
+			db.execSQL("ALTER TABLE " + TABLE_COUNTDOWNS + " RENAME TO countdowns_v1;");
+			createCountdowns(db);
+
+			DateFormat[] formats = new DateFormat[]{
+					DateFormat.getDateInstance(DateFormat.LONG),
+					DateFormat.getDateInstance(DateFormat.LONG, Locale.UK),
+					DateFormat.getDateInstance(DateFormat.LONG, Locale.US)
+			};
+			SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_COUNTDOWNS + " (" +
+					BaseColumns._ID + ", " + COLUMN_LABEL + ", " + COLUMN_EPOCH_DAY + ", " +
+					COLUMN_EPOCH_MILLIS + ", " + COLUMN_NOTIFY + ") VALUES (?, ?, ?, ?, ?);");
+			Cursor old = db.query("countdowns_v1", new String[]{BaseColumns._ID, "label", "date", "notify"},
+					null, null, null, null, null);
+			try {
+				while (old.moveToNext()) {
+					Date date = parseLegacyDate(formats, old.getString(2));
+					insert.clearBindings();
+					insert.bindLong(1, old.getLong(0));
+					if (!old.isNull(1)) insert.bindString(2, old.getString(1));
+					if (date != null) {
+						insert.bindLong(3, EpochDays.fromDate(date));
+						insert.bindLong(4, date.getTime());
+					} else {
+						Log.w(TAG, "Couldn't parse stored date " + old.getString(2) + ", using today");
+						insert.bindLong(3, DayMath.today());
+					}
+					if (!old.isNull(3)) insert.bindString(5, old.getString(3));
+					insert.executeInsert();
+				}
+			} finally {
+				old.close();
+				insert.close();
+			}
+			db.execSQL("DROP TABLE countdowns_v1;");
+		}
 
+		private Date parseLegacyDate(DateFormat[] formats, String date) {
+			if (date == null) return null;
+			for (DateFormat format : formats) {
+				try {
+					return format.parse(date);
+				} catch (ParseException e) {
+					// try the next one
+				}
+			}
+			return null;
 		}
 	}
 
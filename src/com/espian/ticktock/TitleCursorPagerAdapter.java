@@ -16,46 +16,74 @@
 
 package com.espian.ticktock;
 
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.support.v4.app.FragmentActivity;
-import android.support.v4.view.PagerAdapter;
-import android.util.SparseArray;
 import com.espian.ticktock.oss.CursorPagerAdapter;
 
+import java.util.Locale;
+
 /**
  * Author: Alex Curran
  * Date: 23/03/2013
  */
 public class TitleCursorPagerAdapter extends CursorPagerAdapter<CountdownFragment> {
 
-	private final SparseArray<String> mTitles;
-	private String noItemString;
+	/**
+	 * How many titles are remembered. A power of two, as it's indexed by the low bits of the id.
+	 */
+	private static final int TITLE_CACHE_SIZE = 64;
 
-	public TitleCursorPagerAdapter(FragmentActivity act) {
-		super(act.getSupportFragmentManager(), CountdownFragment.class, EmptyFragment.class, null, null);
-		noItemString = act.getString(R.string.no_items);
-		mTitles = new SparseArray<String>();
-	}
+	/**
+	 * Upper-cased titles, each in the slot its row id maps to, with the label each was made from.
+	 * They're kept across cursor swaps; the first time a title is asked for from a new cursor, its
+	 * label is copied into a reused buffer and compared with the remembered one, so only a label
+	 * that's actually been edited is upper-cased again, and redrawing the tab strip allocates nothing.
+	 */
+	private final long[] mTitleIds = new long[TITLE_CACHE_SIZE];
+	private final String[] mLabels = new String[TITLE_CACHE_SIZE];
+	private final String[] mTitles = new String[TITLE_CACHE_SIZE];
+	private final Cursor[] mCheckedAgainst = new Cursor[TITLE_CACHE_SIZE];
+	private final CharArrayBuffer mLabelBuffer = new CharArrayBuffer(64);
 
-	@Override
-	public void swapCursor(Cursor c) {
-		mTitles.clear();
-		while (c.moveToNext()) {
-			mTitles.put(c.getPosition(), c.getString(1));
-		}
-		c.moveToFirst();
-		super.swapCursor(c);
+	private final String noItemString;
+
+	public TitleCursorPagerAdapter(FragmentActivity act) {
+		super(act.getSupportFragmentManager(), CountdownFragment.class, EmptyFragment.class,
+				CountdownContract.PAGE_BINDER, null);
+		noItemString = act.getString(R.string.no_items).toUpperCase(Locale.getDefault());
 	}
 
 	@Override
 	public CharSequence getPageTitle(int position) {
-		if (mTitles.size() == 0) return noItemString.toUpperCase();
-		return mTitles.get(position).toUpperCase();
+		Cursor cursor = getCursor();
+		if (cursor == null || !cursor.moveToPosition(position)) return noItemString;
+
+		long id = cursor.getLong(CountdownContract.INDEX_ID);
+		int slot = (int) (id & (TITLE_CACHE_SIZE - 1));
+		if (mTitles[slot] == null || mTitleIds[slot] != id
+				|| (mCheckedAgainst[slot] != cursor && !hasLabel(cursor, mLabels[slot]))) {
+			String label = cursor.getString(CountdownContract.INDEX_LABEL);
+			mLabels[slot] = label;
+			mTitles[slot] = label == null || label.isEmpty() ? String.valueOf(id) : label.toUpperCase(Locale.getDefault());
+			mTitleIds[slot] = id;
+		}
+		mCheckedAgainst[slot] = cursor;
+		return mTitles[slot];
 	}
 
-	@Override
-	public int getItemPosition(Object object) {
-		return PagerAdapter.POSITION_NONE;
+	/**
+	 * @return true if the cursor's current row has exactly this label, read without making a string
+	 */
+	private boolean hasLabel(Cursor cursor, String label) {
+		if (cursor.isNull(CountdownContract.INDEX_LABEL)) return label == null;
+		if (label == null) return false;
+		cursor.copyStringToBuffer(CountdownContract.INDEX_LABEL, mLabelBuffer);
+		if (mLabelBuffer.sizeCopied != label.length()) return false;
+		for (int i = 0; i < mLabelBuffer.sizeCopied; i++) {
+			if (mLabelBuffer.data[i] != label.charAt(i)) return false;
+		}
+		return true;
 	}
 
 }
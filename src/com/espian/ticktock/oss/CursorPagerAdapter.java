@@ -18,35 +18,83 @@ package com.espian.ticktock.oss;
 
 import android.database.Cursor;
 import android.os.Bundle;
+import android.os.Parcelable;
+import android.provider.BaseColumns;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentStatePagerAdapter;
-import android.util.SparseArray;
+import android.support.v4.app.FragmentTransaction;
+import android.support.v4.view.PagerAdapter;
+import android.view.View;
+import android.view.ViewGroup;
 
-import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-public class CursorPagerAdapter<F extends Fragment> extends FragmentStatePagerAdapter {
+/**
+ * Pages through a cursor, one fragment per row. Pages are kept by the row's _id rather than its
+ * position, so when the cursor is swapped only the pages whose rows were removed or changed are
+ * rebuilt; the rest keep their fragment and are told their new position.
+ */
+public class CursorPagerAdapter<F extends Fragment> extends PagerAdapter {
+
+	/**
+	 * The id the empty fragment is kept under
+	 */
+	private static final long EMPTY_ID = Long.MIN_VALUE;
+	private static final String STATE_PAGE = "page:";
+
+	/**
+	 * How many rows either side of where a page's row is expected to be it's looked for after a
+	 * swap, before giving up and reading every row's id
+	 */
+	private static final int SEARCH_RADIUS = 4;
 
+	private final FragmentManager fragmentManager;
 	private final Class<F> fragmentClass;
-	private final String[] projection;
+	private final RowBinder binder;
 	private final Class<? extends Fragment> emptyFragmentClass;
-	private final SparseArray<WeakReference<F>> fragmentRefs = new SparseArray<WeakReference<F>>();
+
+	/**
+	 * The pages that have been made, by the id of the row each shows
+	 */
+	private final Map<Long, Fragment> pages = new HashMap<Long, Fragment>();
+
+	/**
+	 * Where the rows of the existing pages are in the current cursor. Pages missing from here had
+	 * their row removed or changed by the last swap.
+	 */
+	private final Map<Long, Integer> positions = new HashMap<Long, Integer>();
+
+	private FragmentTransaction transaction;
+	private Fragment primaryItem;
 	private Cursor cursor;
-	private boolean hasEmptyFragment = true;
+	private int idColumn = -1;
 
+	/**
+	 * @param binder what each page is given from its row, or null to give it every column as a string
+	 */
 	public CursorPagerAdapter(FragmentManager fm, Class<F> fragmentClass, Class<? extends Fragment> emptyFragmentClass,
-	                          String[] projection, Cursor cursor) {
-		super(fm);
+	                          RowBinder binder, Cursor cursor) {
+		this.fragmentManager = fm;
 		this.fragmentClass = fragmentClass;
 		this.emptyFragmentClass = emptyFragmentClass;
-		this.projection = projection;
-		this.cursor = cursor;
-		hasEmptyFragment = true;
+		this.binder = binder == null ? RowBinder.ALL_AS_STRINGS : binder;
+		swapCursor(cursor);
 	}
 
-	@Override
+	/**
+	 * @return the page at the position: the existing one if it's been made, otherwise a new one
+	 * that isn't added anywhere
+	 */
 	public Fragment getItem(int position) {
-		if (cursor == null || cursor.getCount() == 0) {
+		Fragment page = pages.get(idAt(position));
+		return page != null ? page : newPage(position);
+	}
+
+	private Fragment newPage(int position) {
+		if (isEmpty()) {
 			if (emptyFragmentClass != null) {
 				try {
 					return emptyFragmentClass.newInstance();
@@ -57,9 +105,6 @@ public class CursorPagerAdapter<F extends Fragment> extends FragmentStatePagerAd
 			return null;
 		}
 
-		if (fragmentRefs.get(position) != null &&
-				fragmentRefs.get(position).get() != null) return fragmentRefs.get(position).get();
-
 		cursor.moveToPosition(position);
 		F frag;
 		try {
@@ -68,38 +113,233 @@ public class CursorPagerAdapter<F extends Fragment> extends FragmentStatePagerAd
 			throw new RuntimeException(ex);
 		}
 		Bundle args = new Bundle();
-		if (projection == null || projection.length == 0) {
-			for (int i = 0; i < cursor.getColumnCount(); i++) {
-				args.putString(cursor.getColumnName(i), cursor.getString(i));
+		binder.bind(cursor, args);
+		frag.setArguments(args);
+		return frag;
+	}
+
+	@Override
+	public Object instantiateItem(ViewGroup container, int position) {
+		long id = idAt(position);
+		Fragment page = pages.get(id);
+		if (page != null) {
+			// Brought back with the pager's state, or never destroyed
+			positions.put(id, position);
+			return page;
+		}
+
+		page = newPage(position);
+		page.setMenuVisibility(false);
+		page.setUserVisibleHint(false);
+		pages.put(id, page);
+		positions.put(id, position);
+		if (transaction == null) transaction = fragmentManager.beginTransaction();
+		transaction.add(container.getId(), page);
+		return page;
+	}
+
+	@Override
+	public void destroyItem(ViewGroup container, int position, Object object) {
+		Fragment page = (Fragment) object;
+		Long id = idOf(page);
+		if (id != null) {
+			pages.remove(id);
+			positions.remove(id);
+		}
+		if (page == primaryItem) primaryItem = null;
+		if (transaction == null) transaction = fragmentManager.beginTransaction();
+		transaction.remove(page);
+	}
+
+	@Override
+	public void setPrimaryItem(ViewGroup container, int position, Object object) {
+		Fragment page = (Fragment) object;
+		if (page != primaryItem) {
+			if (primaryItem != null) {
+				primaryItem.setMenuVisibility(false);
+				primaryItem.setUserVisibleHint(false);
 			}
-		} else {
-			for (int i = 0; i < projection.length; ++i) {
-				args.putString(projection[i], cursor.getString(i));
+			if (page != null) {
+				page.setMenuVisibility(true);
+				page.setUserVisibleHint(true);
 			}
+			primaryItem = page;
 		}
-		frag.setArguments(args);
-		fragmentRefs.put(position, new WeakReference<F>(frag));
-		return frag;
+	}
+
+	@Override
+	public void finishUpdate(ViewGroup container) {
+		if (transaction != null) {
+			transaction.commitAllowingStateLoss();
+			transaction = null;
+			fragmentManager.executePendingTransactions();
+		}
+	}
+
+	@Override
+	public boolean isViewFromObject(View view, Object object) {
+		return ((Fragment) object).getView() == view;
+	}
+
+	@Override
+	public int getItemPosition(Object object) {
+		Long id = idOf((Fragment) object);
+		Integer position = id == null ? null : positions.get(id);
+		return position == null ? POSITION_NONE : position;
 	}
 
 	@Override
 	public int getCount() {
-		if (hasEmptyFragment) return 1;
-		if (cursor == null) return 0;
+		if (isEmpty()) return emptyFragmentClass != null ? 1 : 0;
 		else return cursor.getCount();
 	}
 
+	/**
+	 * Swap in a new cursor, working out which existing pages survive it and where they move to,
+	 * before telling the pager.
+	 */
 	public void swapCursor(Cursor c) {
-		if (cursor == c)
+		swapCursor(c, 0);
+	}
+
+	/**
+	 * Swap in a new cursor, working out which existing pages survive it and where they move to,
+	 * before telling the pager. Each page's row is looked for near where it was first; if any
+	 * isn't there, the cursor's ids are read once to find where the rest went.
+	 *
+	 * @param shift how far rows were added (or, if negative, removed) in front of the existing
+	 *              pages' rows, if the caller knows, so the search starts in the right place
+	 */
+	public void swapCursor(Cursor c, int shift) {
+		if (cursor == c && c != null)
 			return;
 
 		this.cursor = c;
+		idColumn = c == null ? -1 : c.getColumnIndexOrThrow(BaseColumns._ID);
+		if (isEmpty()) {
+			positions.clear();
+			if (pages.containsKey(EMPTY_ID)) positions.put(EMPTY_ID, 0);
+		} else {
+			// Only the few rows with pages are read, near the rows they were on, in order
+			int found = 0;
+			long[] ids = new long[positions.size()];
+			int[] hints = new int[positions.size()];
+			for (Map.Entry<Long, Integer> entry : positions.entrySet()) {
+				if (entry.getKey() == EMPTY_ID) continue;
+				int i = found++;
+				for (; i > 0 && hints[i - 1] > entry.getValue(); i--) {
+					ids[i] = ids[i - 1];
+					hints[i] = hints[i - 1];
+				}
+				ids[i] = entry.getKey();
+				hints[i] = entry.getValue();
+			}
+			positions.clear();
+			// Rows usually move together, so each page found tells the next where to look
+			int delta = shift;
+			// Read only if a row moved further than that, and then just once
+			Map<Long, Integer> allPositions = null;
+			for (int i = 0; i < found; i++) {
+				int position = find(c, ids[i], hints[i] + delta);
+				if (position == -1) {
+					if (allPositions == null) allPositions = readPositions(c);
+					Integer moved = allPositions.get(ids[i]);
+					if (moved == null) continue;
+					position = moved;
+					c.moveToPosition(position);
+				}
+				delta = position - hints[i];
+				Bundle args = pages.get(ids[i]).getArguments();
+				if (args != null && binder.isSameRow(c, args)) positions.put(ids[i], position);
+			}
+		}
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * @return the position of the row with the id within {@link #SEARCH_RADIUS} of the expected
+	 * one, nearest first, with the cursor moved to it. -1 if it isn't there.
+	 */
+	private int find(Cursor c, long id, int expected) {
+		for (int distance = 0; distance <= SEARCH_RADIUS; distance++) {
+			if (c.moveToPosition(expected + distance) && c.getLong(idColumn) == id) return expected + distance;
+			if (distance > 0 && c.moveToPosition(expected - distance) && c.getLong(idColumn) == id) {
+				return expected - distance;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return where every row in the cursor is, by id
+	 */
+	private Map<Long, Integer> readPositions(Cursor c) {
+		Map<Long, Integer> all = new HashMap<Long, Integer>(c.getCount() * 4 / 3 + 1);
+		for (int position = 0; c.moveToPosition(position); position++) {
+			all.put(c.getLong(idColumn), position);
+		}
+		return all;
+	}
+
 	public Cursor getCursor() {
 		return cursor;
 	}
 
+	/**
+	 * @return the row pages that currently exist. They may not currently have views.
+	 */
+	public List<F> getLiveFragments() {
+		List<F> live = new ArrayList<F>(pages.size());
+		for (Fragment page : pages.values()) {
+			if (fragmentClass.isInstance(page)) live.add(fragmentClass.cast(page));
+		}
+		return live;
+	}
+
+	@Override
+	public Parcelable saveState() {
+		Bundle state = null;
+		for (Map.Entry<Long, Fragment> page : pages.entrySet()) {
+			if (page.getValue().isAdded()) {
+				if (state == null) state = new Bundle();
+				fragmentManager.putFragment(state, STATE_PAGE + page.getKey(), page.getValue());
+			}
+		}
+		return state;
+	}
+
+	@Override
+	public void restoreState(Parcelable state, ClassLoader loader) {
+		if (state == null) return;
+		Bundle bundle = (Bundle) state;
+		bundle.setClassLoader(loader);
+		pages.clear();
+		for (String key : bundle.keySet()) {
+			if (!key.startsWith(STATE_PAGE)) continue;
+			// The fragment manager has already brought these back; take them over rather than adding more
+			Fragment page = fragmentManager.getFragment(bundle, key);
+			if (page != null) {
+				page.setMenuVisibility(false);
+				pages.put(Long.parseLong(key.substring(STATE_PAGE.length())), page);
+			}
+		}
+	}
+
+	private boolean isEmpty() {
+		return cursor == null || cursor.getCount() == 0;
+	}
+
+	private long idAt(int position) {
+		if (isEmpty()) return EMPTY_ID;
+		cursor.moveToPosition(position);
+		return cursor.getLong(idColumn);
+	}
+
+	private Long idOf(Fragment page) {
+		for (Map.Entry<Long, Fragment> entry : pages.entrySet()) {
+			if (entry.getValue() == page) return entry.getKey();
+		}
+		return null;
+	}
 
 }
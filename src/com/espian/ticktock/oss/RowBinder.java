@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock.oss;
+
+import android.database.Cursor;
+import android.os.Bundle;
+
+/**
+ * Copies what a page shows out of its row and into the page's arguments, so a
+ * {@link CursorPagerAdapter} can make pages without knowing what's in the cursor.
+ */
+public interface RowBinder {
+
+	/**
+	 * @param row the cursor, moved to the page's row
+	 */
+	void bind(Cursor row, Bundle args);
+
+	/**
+	 * @return true if the arguments were bound from a row with exactly these values, so the page
+	 * made from them can be kept
+	 */
+	boolean isSameRow(Cursor row, Bundle args);
+
+	/**
+	 * Binds every column as a string, under its own name
+	 */
+	RowBinder ALL_AS_STRINGS = new RowBinder() {
+		@Override
+		public void bind(Cursor row, Bundle args) {
+			for (int i = 0; i < row.getColumnCount(); i++) {
+				args.putString(row.getColumnName(i), row.getString(i));
+			}
+		}
+
+		@Override
+		public boolean isSameRow(Cursor row, Bundle args) {
+			for (int i = 0; i < row.getColumnCount(); i++) {
+				String value = args.getString(row.getColumnName(i));
+				if (value == null ? !row.isNull(i) : !value.equals(row.getString(i))) return false;
+			}
+			return true;
+		}
+	};
+
+}
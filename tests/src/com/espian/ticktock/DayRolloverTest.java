@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.Intent;
+import junit.framework.TestCase;
+
+import java.util.TimeZone;
+
+/**
+ * Takes 10,000 day counts through midnight, clock changes and time zone changes on a fake clock,
+ * checking each one against its own date every time
+ */
+public class DayRolloverTest extends TestCase {
+
+	private static final int COUNTDOWNS = 10000;
+	private static final long HOUR = 60 * 60 * 1000;
+
+	/**
+	 * 2014-06-01 00:00 UTC, in epoch days
+	 */
+	private static final long START_DAY = 16222;
+
+	private static class FakeClock implements Clock {
+		long now;
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	/**
+	 * Moves every count on to each new day it's told about, as the activity does its live pages
+	 */
+	private static class Counts implements DayRollover.Listener {
+		final DayCount[] counts = new DayCount[COUNTDOWNS];
+		int dayChanges;
+		int timeZoneChanges;
+
+		@Override
+		public void onDayChanged(long today) {
+			dayChanges++;
+			for (DayCount count : counts) {
+				count.countFrom(today);
+			}
+		}
+
+		@Override
+		public void onTimeZoneChanged() {
+			timeZoneChanges++;
+		}
+	}
+
+	private TimeZone mDefaultZone;
+	private FakeClock mClock;
+	private Counts mCounts;
+	private DayRollover mRollover;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDefaultZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+		DayMath.invalidate();
+
+		mClock = new FakeClock();
+		// 23:00 local (BST) on the start day
+		mClock.now = START_DAY * EpochDays.MILLIS_PER_DAY + 22 * HOUR;
+		mCounts = new Counts();
+		long today = DayMath.today(mClock.now);
+		assertEquals(START_DAY, today);
+		for (int i = 0; i < COUNTDOWNS; i++) {
+			// Some passed, some today, most still to come
+			mCounts.counts[i] = new DayCount(START_DAY - 100 + i, today);
+		}
+		mRollover = new DayRollover(mClock, mCounts);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TimeZone.setDefault(mDefaultZone);
+		DayMath.invalidate();
+		super.tearDown();
+	}
+
+	private void broadcast(String action) {
+		mRollover.onReceive(null, new Intent(action));
+	}
+
+	private void assertCountsAreFrom(long today) {
+		for (DayCount count : mCounts.counts) {
+			assertEquals(today, count.countedFrom());
+			assertEquals(count.epochDay - today, count.daysRemaining());
+		}
+	}
+
+	public void testMidnightMovesEveryCountOnOnce() {
+		mClock.now += 2 * HOUR;
+		broadcast(Intent.ACTION_DATE_CHANGED);
+
+		assertEquals(1, mCounts.dayChanges);
+		assertCountsAreFrom(START_DAY + 1);
+
+		// The same change of day told about again changes nothing
+		broadcast(Intent.ACTION_TIME_CHANGED);
+		mRollover.check();
+		assertEquals(1, mCounts.dayChanges);
+		assertCountsAreFrom(START_DAY + 1);
+	}
+
+	public void testCountsMadeAfterMidnightAreNotMovedAgain() {
+		mClock.now += 2 * HOUR;
+		long tomorrow = DayMath.today(mClock.now);
+		// Pages rebuilt by a reload just after midnight, before the change of day is broadcast
+		for (int i = 0; i < COUNTDOWNS; i += 3) {
+			mCounts.counts[i] = new DayCount(mCounts.counts[i].epochDay, tomorrow);
+		}
+
+		broadcast(Intent.ACTION_DATE_CHANGED);
+
+		assertCountsAreFrom(START_DAY + 1);
+	}
+
+	public void testClockPutBack() {
+		mClock.now -= 2 * EpochDays.MILLIS_PER_DAY;
+		broadcast(Intent.ACTION_TIME_CHANGED);
+
+		assertEquals(1, mCounts.dayChanges);
+		assertCountsAreFrom(START_DAY - 2);
+	}
+
+	public void testTimeZoneChangeOverTheDateLine() {
+		// 23:00 in London is already the next day in Kiribati, at UTC+14
+		TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+		broadcast(Intent.ACTION_TIMEZONE_CHANGED);
+
+		assertEquals(1, mCounts.dayChanges);
+		assertEquals(1, mCounts.timeZoneChanges);
+		assertCountsAreFrom(START_DAY + 1);
+
+		// And back again, then to a zone where it's only just gone midnight
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+		broadcast(Intent.ACTION_TIMEZONE_CHANGED);
+		assertEquals(2, mCounts.dayChanges);
+		assertCountsAreFrom(START_DAY);
+
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/Paris"));
+		broadcast(Intent.ACTION_TIMEZONE_CHANGED);
+		assertEquals(3, mCounts.dayChanges);
+		assertEquals(3, mCounts.timeZoneChanges);
+		assertCountsAreFrom(START_DAY + 1);
+	}
+
+	public void testMissedDaysWhileUnregistered() {
+		mClock.now += 10 * EpochDays.MILLIS_PER_DAY;
+		// What register does once it's listening again
+		mRollover.check();
+
+		assertEquals(1, mCounts.dayChanges);
+		assertCountsAreFrom(START_DAY + 10);
+	}
+
+}
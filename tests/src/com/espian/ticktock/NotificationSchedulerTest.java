@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Runs countdowns' notifications day by day on a fake clock, the way the provider and the alarm
+ * move them on, checking every occurrence is announced once, on the right day, with the right count
+ */
+public class NotificationSchedulerTest extends TestCase {
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	/**
+	 * 2014-06-01, a Sunday, in epoch days
+	 */
+	private static final long JUNE_1 = 16222;
+
+	/**
+	 * 2014-03-30 and 2014-10-26, when the clocks in London go forward and back
+	 */
+	private static final long CLOCKS_FORWARD = 16159;
+	private static final long CLOCKS_BACK = 16369;
+
+	private static class FakeClock implements Clock {
+		long now;
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	/**
+	 * A countdown's stored notification columns, moved on by the same calls as the provider and
+	 * {@link NotificationScheduler#postDue()} make
+	 */
+	private class Countdown {
+		final long epochDay;
+		final int rule;
+		final int daysBefore;
+		long nextOccurrence;
+		Long notifyDay;
+		Long notifiedDay;
+
+		/**
+		 * The occurrence each posted notification was about, and the days away it said it was
+		 */
+		final List<long[]> posted = new ArrayList<long[]>();
+
+		Countdown(long epochDay, int rule, int daysBefore) {
+			this.epochDay = epochDay;
+			this.rule = rule;
+			this.daysBefore = daysBefore;
+			long today = DayMath.today(mClock.now);
+			nextOccurrence = Recurrence.nextOccurrence(epochDay, rule, today);
+			notifyDay = NotificationScheduler.nextNotifyDay(epochDay, rule, daysBefore, null, today);
+		}
+
+		/**
+		 * The provider's first read of the day
+		 */
+		void advance() {
+			long today = DayMath.today(mClock.now);
+			if (rule == Recurrence.NONE || nextOccurrence >= today) return;
+			nextOccurrence = Recurrence.nextOccurrence(epochDay, rule, today);
+			notifyDay = NotificationScheduler.nextNotifyDay(epochDay, rule, daysBefore, notifiedDay, today);
+		}
+
+		/**
+		 * Goes off at the alarm time if that's before the given instant, re-arming and going off
+		 * again as long as anything's still due
+		 */
+		void runAlarmsUntil(long until) {
+			for (int alarms = 0; notifyDay != null && NotificationScheduler.alarmTime(notifyDay, mClock.now) < until;
+			     alarms++) {
+				// Each countdown has at most one notification due a day, so this would be posting one again
+				assertTrue(alarms < 2);
+				mClock.now = NotificationScheduler.alarmTime(notifyDay, mClock.now);
+				long today = DayMath.today(mClock.now);
+				assertTrue(notifyDay <= NotificationScheduler.dueThrough(mClock.now));
+				long occurrence = notifyDay + daysBefore;
+				if (occurrence >= today) posted.add(new long[]{occurrence, occurrence - today});
+				notifiedDay = notifyDay;
+				notifyDay = NotificationScheduler.nextNotifyDay(epochDay, rule, daysBefore, notifiedDay, today);
+			}
+		}
+	}
+
+	private TimeZone mDefaultZone;
+	private FakeClock mClock;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mDefaultZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+		DayMath.invalidate();
+		mClock = new FakeClock();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		TimeZone.setDefault(mDefaultZone);
+		DayMath.invalidate();
+		super.tearDown();
+	}
+
+	/**
+	 * Noon, local (BST) time, on the given day in the summer
+	 */
+	private static long summerNoon(long epochDay) {
+		return epochDay * EpochDays.MILLIS_PER_DAY + 11 * HOUR;
+	}
+
+	/**
+	 * Moves the clock on a day at a time from noon on the first day, reading and letting the
+	 * alarm go off as the app would
+	 */
+	private void runDays(Countdown countdown, int days) {
+		for (int i = 0; i < days; i++) {
+			long midnight = DayMath.nextMidnight(mClock.now);
+			countdown.runAlarmsUntil(midnight);
+			mClock.now = midnight + HOUR;
+			countdown.advance();
+		}
+	}
+
+	private void assertPosted(Countdown countdown, long[]... expected) {
+		assertEquals(expected.length, countdown.posted.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("occurrence " + i, expected[i][0], countdown.posted.get(i)[0]);
+			assertEquals("days away " + i, expected[i][1], countdown.posted.get(i)[1]);
+		}
+	}
+
+	public void testWeeklyWithAWeeksNoticeAnnouncesEachOccurrenceOnce() {
+		mClock.now = summerNoon(JUNE_1 - 10);
+		Countdown countdown = new Countdown(JUNE_1, Recurrence.WEEKLY, 7);
+
+		runDays(countdown, 10 + 7 * 8);
+
+		// Each a week ahead, on the day of the one before; never "today", never twice
+		long[][] expected = new long[9][];
+		for (int week = 0; week < expected.length; week++) {
+			expected[week] = new long[]{JUNE_1 + 7 * week, 7};
+		}
+		assertPosted(countdown, expected);
+	}
+
+	public void testAdvancingPastAnOccurrenceDoesNotMakeItsNotificationDueAgain() {
+		mClock.now = summerNoon(JUNE_1 - 1);
+		Countdown countdown = new Countdown(JUNE_1, Recurrence.WEEKLY, 7);
+		// The one for June 8th went out on the 1st
+		mClock.now = summerNoon(JUNE_1);
+		countdown.runAlarmsUntil(DayMath.nextMidnight(mClock.now));
+		assertEquals(Long.valueOf(JUNE_1), countdown.notifiedDay);
+
+		mClock.now = summerNoon(JUNE_1 + 1);
+		countdown.advance();
+
+		assertEquals(JUNE_1 + 7, countdown.nextOccurrence);
+		assertEquals(Long.valueOf(JUNE_1 + 7), countdown.notifyDay);
+	}
+
+	public void testOneOffWithLessTimeLeftThanItsNoticeNotifiesStraightAwayThenStops() {
+		mClock.now = summerNoon(JUNE_1 - 3);
+		Countdown countdown = new Countdown(JUNE_1, Recurrence.NONE, 7);
+		assertEquals(Long.valueOf(JUNE_1 - 7), countdown.notifyDay);
+
+		runDays(countdown, 10);
+
+		assertPosted(countdown, new long[]{JUNE_1, 3});
+		assertNull(countdown.notifyDay);
+	}
+
+	public void testResettingWithTheSameTimingChangesNothing() {
+		mClock.now = summerNoon(JUNE_1 - 10);
+		Countdown countdown = new Countdown(JUNE_1, Recurrence.NONE, 7);
+		runDays(countdown, 5);
+		assertPosted(countdown, new long[]{JUNE_1, 7});
+
+		// As the provider does when a countdown's timing is saved again
+		assertNull(NotificationScheduler.nextNotifyDay(JUNE_1, Recurrence.NONE, 7, countdown.notifiedDay,
+				DayMath.today(mClock.now)));
+	}
+
+	public void testShorterNoticeAfterPostingNotifiesAgainLater() {
+		mClock.now = summerNoon(JUNE_1 - 10);
+		Countdown countdown = new Countdown(JUNE_1, Recurrence.NONE, 7);
+		runDays(countdown, 5);
+
+		assertEquals(Long.valueOf(JUNE_1 - 1), NotificationScheduler.nextNotifyDay(JUNE_1, Recurrence.NONE, 1,
+				countdown.notifiedDay, DayMath.today(mClock.now)));
+	}
+
+	public void testMissedNotificationsForPassedOccurrencesAreSkipped() {
+		mClock.now = summerNoon(JUNE_1 - 1);
+		Countdown countdown = new Countdown(JUNE_1, Recurrence.WEEKLY, 1);
+		// Switched off for three weeks
+		mClock.now = summerNoon(JUNE_1 + 20);
+		countdown.advance();
+
+		assertEquals(JUNE_1 + 21, countdown.nextOccurrence);
+		assertEquals(Long.valueOf(JUNE_1 + 20), countdown.notifyDay);
+		countdown.runAlarmsUntil(DayMath.nextMidnight(mClock.now));
+		assertPosted(countdown, new long[]{JUNE_1 + 21, 1});
+	}
+
+	public void testNotificationsAreDueFromTheLocalNotifyHour() {
+		long nine = JUNE_1 * EpochDays.MILLIS_PER_DAY + 8 * HOUR;
+
+		assertEquals(nine, NotificationScheduler.alarmTime(JUNE_1, nine - 2 * HOUR));
+		assertEquals(JUNE_1 - 1, NotificationScheduler.dueThrough(nine - 1));
+		assertEquals(JUNE_1, NotificationScheduler.dueThrough(nine));
+		// Already past, so straight away
+		assertEquals(nine + HOUR, NotificationScheduler.alarmTime(JUNE_1, nine + HOUR));
+	}
+
+	public void testNotifyHourOnTheDaysTheClocksChange() {
+		// 09:00 BST is 08:00 UTC, and 09:00 GMT is 09:00 UTC
+		assertEquals(CLOCKS_FORWARD * EpochDays.MILLIS_PER_DAY + 8 * HOUR, DayMath.atHour(CLOCKS_FORWARD, 9));
+		assertEquals(CLOCKS_BACK * EpochDays.MILLIS_PER_DAY + 9 * HOUR, DayMath.atHour(CLOCKS_BACK, 9));
+		// 01:00 doesn't happen the day they go forward, so it's 02:00 BST
+		assertEquals(CLOCKS_FORWARD * EpochDays.MILLIS_PER_DAY + HOUR, DayMath.atHour(CLOCKS_FORWARD, 1));
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 Alex Curran.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.espian.ticktock;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.test.ProviderTestCase2;
+
+import java.util.ArrayList;
+
+/**
+ * Checks that batched writes reach the disk in one commit, and answer the same as the single-row calls
+ */
+public class TickTockProviderTest extends ProviderTestCase2<TickTockProvider> {
+
+	private static final int ROWS = 1000;
+	private static final long FIRST_DAY = 16000;
+
+	public TickTockProviderTest() {
+		super(TickTockProvider.class, TickTockProvider.AUTHORITY);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// The isolated context has no alarm service or package name for the alarm and widget
+		getProvider().setChangeListener(TickTockProvider.ChangeListener.NONE);
+	}
+
+	private static ContentValues countdown(int i) {
+		ContentValues values = new ContentValues();
+		values.put(TickTockProvider.COLUMN_LABEL, "Countdown " + i);
+		values.put(TickTockProvider.COLUMN_EPOCH_DAY, FIRST_DAY + i);
+		return values;
+	}
+
+	private long commits() {
+		return getProvider().getStats().commits();
+	}
+
+	private int countRows() {
+		Cursor cursor = getMockContentResolver().query(TickTockProvider.countdownUri,
+				new String[]{"count(*)"}, null, null, null);
+		try {
+			assertTrue(cursor.moveToFirst());
+			return cursor.getInt(0);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public void testBulkInsertCommitsOnce() {
+		ContentValues[] values = new ContentValues[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			values[i] = countdown(i);
+		}
+		long before = commits();
+
+		assertEquals(ROWS, getMockContentResolver().bulkInsert(TickTockProvider.countdownUri, values));
+
+		assertEquals(1, commits() - before);
+		assertEquals(ROWS, countRows());
+	}
+
+	public void testApplyBatchCommitsOnce() throws Exception {
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		for (int i = 0; i < ROWS; i++) {
+			operations.add(ContentProviderOperation.newInsert(TickTockProvider.countdownUri)
+					.withValues(countdown(i)).build());
+		}
+		long before = commits();
+
+		ContentProviderResult[] results = getMockContentResolver().applyBatch(TickTockProvider.AUTHORITY, operations);
+
+		assertEquals(1, commits() - before);
+		assertEquals(ROWS, results.length);
+		assertEquals(ROWS, countRows());
+		// Each result points at its own row, as the uri from a single insert would
+		for (int i = 0; i < ROWS; i++) {
+			long id = ContentUris.parseId(results[i].uri);
+			assertEquals(TickTockProvider.countdownUri(id), results[i].uri);
+			Cursor row = getMockContentResolver().query(results[i].uri,
+					new String[]{TickTockProvider.COLUMN_LABEL}, null, null, null);
+			try {
+				assertTrue(row.moveToFirst());
+				assertEquals("Countdown " + i, row.getString(0));
+			} finally {
+				row.close();
+			}
+		}
+	}
+
+	public void testApplyBatchCountsMatchSingleCalls() throws Exception {
+		long id = ContentUris.parseId(getMockContentResolver().insert(TickTockProvider.countdownUri, countdown(0)));
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		operations.add(ContentProviderOperation.newUpdate(TickTockProvider.countdownUri(id))
+				.withValue(TickTockProvider.COLUMN_LABEL, "Renamed").build());
+		operations.add(ContentProviderOperation.newDelete(TickTockProvider.countdownUri(id)).build());
+		long before = commits();
+
+		ContentProviderResult[] results = getMockContentResolver().applyBatch(TickTockProvider.AUTHORITY, operations);
+
+		assertEquals(1, commits() - before);
+		assertEquals(Integer.valueOf(1), results[0].count);
+		assertEquals(Integer.valueOf(1), results[1].count);
+		assertEquals(0, countRows());
+	}
+
+	public void testFailedBatchCommitsNothing() {
+		ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+		for (int i = 0; i < ROWS; i++) {
+			operations.add(ContentProviderOperation.newInsert(TickTockProvider.countdownUri)
+					.withValues(countdown(i)).build());
+		}
+		// There's no such row, so this fails after every insert has run
+		operations.add(ContentProviderOperation.newUpdate(TickTockProvider.countdownUri(Long.MAX_VALUE))
+				.withValue(TickTockProvider.COLUMN_LABEL, "Missing").withExpectedCount(1).build());
+		long before = commits();
+
+		try {
+			getMockContentResolver().applyBatch(TickTockProvider.AUTHORITY, operations);
+			fail("The batch should have failed");
+		} catch (OperationApplicationException e) {
+			// expected
+		} catch (Exception e) {
+			fail(e.toString());
+		}
+
+		assertEquals(0, commits() - before);
+		assertEquals(0, countRows());
+	}
+
+}